@@ -0,0 +1,229 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A batch of items stored in a single block, committed by the root of a Merkle tree.
+ * <p>
+ * The digest of a block containing a batch covers the Merkle root of the items instead of the serialized batch,
+ * so the membership of a single item can be proven with a {@link MerkleProof} of O(log n) digests.
+ * The leaves of the tree are the digests of the serialized items. A node without sibling at the end of a level is promoted as is
+ * to the next level, so a tree can not be extended by duplicating its last item.
+ * The root is the digest of the number of items and of the top node, so a proof can not move an item to another position
+ * of a tree of another size.
+ * <p>
+ * The items must not be modified once they are in the batch.
+ *
+ * @param <E>
+ *            The class of the items.
+ */
+public final class Batch<E extends Serializable> implements Iterable<E>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<E> items;
+
+    private final String algorithm;
+
+    private transient volatile List<byte[][]> tree;
+
+    /**
+     * Create a batch using the {@link Block#DEFAULT_ALGORITHM} to compute the Merkle tree.
+     *
+     * @param items
+     *            the items of the batch, copied in their iteration order
+     * @throws IllegalArgumentException
+     *             If there is no item.
+     */
+    public Batch(Collection<? extends E> items) {
+        this(items, Block.DEFAULT_ALGORITHM);
+    }
+
+    /**
+     * Create a batch.
+     *
+     * @param items
+     *            the items of the batch, copied in their iteration order
+     * @param algorithm
+     *            the name of the digest algorithm used by the Merkle tree, as accepted by {@link MessageDigest#getInstance(String)}
+     * @throws IllegalArgumentException
+     *             If there is no item, or if the algorithm is not available.
+     */
+    public Batch(Collection<? extends E> items, String algorithm) {
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("A batch must contain at least one item");
+        }
+        HashUtils.newMessageDigest(algorithm);
+        this.items = new ArrayList<>(items);
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Return the number of items of the batch.
+     *
+     * @return the number of items of the batch.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Return the item at the specified position.
+     *
+     * @param index
+     *            the position of the item
+     * @return the item at the specified position.
+     * @throws IndexOutOfBoundsException
+     *             If there is no item at this position.
+     */
+    public E get(int index) {
+        return items.get(index);
+    }
+
+    /**
+     * Return the items of the batch.
+     *
+     * @return an unmodifiable view of the items of the batch.
+     */
+    public List<E> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return getItems().iterator();
+    }
+
+    /**
+     * Return the digest algorithm used by the Merkle tree.
+     *
+     * @return the name of the digest algorithm used by the Merkle tree.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Return the root of the Merkle tree of the items.
+     *
+     * @return a read-only view of the root of the Merkle tree.
+     */
+    public ByteBuffer getRoot() {
+        List<byte[][]> levels = tree();
+        byte[] top = levels.get(levels.size() - 1)[0];
+        return ByteBuffer.wrap(HashUtils.merkleRoot(HashUtils.newMessageDigest(algorithm), items.size(), top)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Return the proof that the item at the specified position belongs to the batch.
+     *
+     * @param index
+     *            the position of the item
+     * @return the proof of membership of the item, made of O(log n) digests
+     * @throws IndexOutOfBoundsException
+     *             If there is no item at this position.
+     */
+    public MerkleProof getProof(int index) {
+        if (index < 0 || index >= items.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + items.size());
+        }
+        List<byte[][]> levels = tree();
+        List<byte[]> siblings = new ArrayList<>();
+        int position = index;
+        for (int level = 0; level < levels.size() - 1; level++) {
+            byte[][] nodes = levels.get(level);
+            int sibling = position ^ 1;
+            if (sibling < nodes.length) {
+                siblings.add(nodes[sibling]);
+            }
+            position /= 2;
+        }
+        return new MerkleProof(algorithm, index, items.size(), siblings.toArray(new byte[0][]));
+    }
+
+    /**
+     * Compute the root of the Merkle tree from the current items, without keeping the tree.
+     * It is used to compute the digest of the blocks, so an altered item is detected by the validation of the block.
+     *
+     * @return the root of the Merkle tree
+     */
+    byte[] computeRoot() {
+        MessageDigest messageDigest = HashUtils.newMessageDigest(algorithm);
+        byte[][] level = leaves(messageDigest);
+        while (level.length > 1) {
+            level = parents(messageDigest, level);
+        }
+        return HashUtils.merkleRoot(messageDigest, items.size(), level[0]);
+    }
+
+    /**
+     * Return the levels of the Merkle tree, from the leaves to the root, computed on first use.
+     */
+    private List<byte[][]> tree() {
+        List<byte[][]> levels = tree;
+        if (levels == null) {
+            MessageDigest messageDigest = HashUtils.newMessageDigest(algorithm);
+            levels = new ArrayList<>();
+            byte[][] level = leaves(messageDigest);
+            levels.add(level);
+            while (level.length > 1) {
+                level = parents(messageDigest, level);
+                levels.add(level);
+            }
+            tree = levels;
+        }
+        return levels;
+    }
+
+    private byte[][] leaves(MessageDigest messageDigest) {
+        byte[][] leaves = new byte[items.size()][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = HashUtils.merkleLeaf(messageDigest, items.get(i));
+        }
+        return leaves;
+    }
+
+    private static byte[][] parents(MessageDigest messageDigest, byte[][] level) {
+        byte[][] parents = new byte[(level.length + 1) / 2][];
+        for (int i = 0; i < parents.length; i++) {
+            int left = 2 * i;
+            parents[i] = left + 1 < level.length ? HashUtils.merkleNode(messageDigest, level[left], level[left + 1]) : level[left];
+        }
+        return parents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(items, algorithm);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Batch)) {
+            return false;
+        }
+        Batch<?> other = (Batch<?>) obj;
+        return algorithm.equals(other.algorithm) && items.equals(other.items);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("size", items.size())
+                .append("root", HashUtils.toShortHex(HashUtils.toArray(getRoot())))
+                .build();
+    }
+}
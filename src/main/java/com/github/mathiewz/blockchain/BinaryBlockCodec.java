@@ -0,0 +1,131 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact binary codec for the blocks.
+ * <p>
+ * A range of blocks is encoded as a header followed by the blocks, from the oldest to the latest :
+ * <ul>
+ * <li>the version of the format, on one byte</li>
+ * <li>the index of the first block and the number of blocks, as longs</li>
+ * <li>the digest algorithm of the chain, as modified UTF-8, and the length of the digests, as an int</li>
+ * <li>the digest of the block preceding the range, if the range does not start with the first block</li>
+ * <li>for each block, its digest then its data, encoded by the payload codec and prefixed by its length</li>
+ * </ul>
+ * The digests of the decoded blocks are computed again and checked against the encoded ones.
+ * The lengths read from the stream are checked before anything is allocated : the digests must have the length of the digests
+ * of the algorithm, and the data of a block can not exceed the maximum size of a network message.
+ * The decoder does not read past the encoded blocks, so several ranges can be read from the same stream.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public class BinaryBlockCodec<T extends Serializable> implements BlockCodec<T> {
+
+    private static final byte VERSION = 1;
+
+    private final PayloadCodec<T> payloadCodec;
+
+    /**
+     * Create a codec using the Java serialization to encode the data of the blocks.
+     */
+    public BinaryBlockCodec() {
+        this(new SerializablePayloadCodec<>());
+    }
+
+    /**
+     * Create a codec using the specified codec to encode the data of the blocks.
+     *
+     * @param payloadCodec
+     *            the codec of the data of the blocks
+     */
+    public BinaryBlockCodec(PayloadCodec<T> payloadCodec) {
+        this.payloadCodec = payloadCodec;
+    }
+
+    @Override
+    public void encode(Block<T> tip, long from, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        ByteBuffer tipHash = tip.getHash();
+        data.writeByte(VERSION);
+        data.writeLong(from);
+        data.writeLong(tip.getIndex() - from + 1);
+        data.writeUTF(tip.getAlgorithm());
+        data.writeInt(tipHash.remaining());
+        if (from > 0) {
+            data.write(HashUtils.toArray(tip.get(from - 1).getHash()));
+        }
+        for (long index = from; index <= tip.getIndex(); index++) {
+            Block<T> block = tip.get(index);
+            byte[] payload = payloadCodec.encode(block.getData());
+            data.write(HashUtils.toArray(block.getHash()));
+            data.writeInt(payload.length);
+            data.write(payload);
+        }
+        data.flush();
+    }
+
+    @Override
+    public Block<T> decode(InputStream in, Block<T> chain) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte version = data.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of the block format : " + version);
+        }
+        long from = data.readLong();
+        long count = data.readLong();
+        if (from < 0 || count < 0 || from + count < 0) {
+            throw new IOException("Invalid range of blocks : " + count + " blocks from " + from);
+        }
+        String algorithm = data.readUTF();
+        int hashLength = data.readInt();
+        int digestLength = digestLength(algorithm);
+        if (hashLength != digestLength) {
+            throw new IOException("Invalid length of the digests of " + algorithm + " : " + hashLength + " instead of " + digestLength);
+        }
+        Block<T> block = null;
+        if (from > 0) {
+            byte[] previousHash = readFully(data, hashLength);
+            if (chain == null || chain.getIndex() < from - 1 || !Arrays.equals(previousHash, HashUtils.toArray(chain.get(from - 1).getHash()))) {
+                throw new MissingParentException(from);
+            }
+            block = chain.get(from - 1);
+        }
+        for (long index = from; index < from + count; index++) {
+            byte[] hash = readFully(data, hashLength);
+            int payloadLength = data.readInt();
+            if (payloadLength < 0 || payloadLength > Message.MAX_SIZE) {
+                throw new IOException("Invalid length of the data of the block " + index + " : " + payloadLength);
+            }
+            T payload = payloadCodec.decode(readFully(data, payloadLength));
+            block = block == null ? new Block<>(payload, algorithm) : new Block<>(payload, block);
+            if (!Arrays.equals(hash, HashUtils.toArray(block.getHash()))) {
+                throw new IOException("The block " + index + " does not match its digest");
+            }
+        }
+        return block;
+    }
+
+    private static int digestLength(String algorithm) throws IOException {
+        try {
+            return HashUtils.newMessageDigest(algorithm).getDigestLength();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static byte[] readFully(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -1,19 +1,26 @@
 package com.github.mathiewz.blockchain;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Spliterator;
-import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
 
 /**
  * A block containing some data.
@@ -25,27 +32,63 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  */
 public class Block<T extends Serializable> implements Iterable<Block<T>>, Comparable<Block<T>>, Serializable {
     
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private final int index;
+    /**
+     * The digest algorithm used when none is specified.
+     */
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+
+    private static final byte[] NO_MERKLE_ROOT = new byte[0];
+
+    private final long index;
     
-    private final T data;
+    private transient volatile T data;
+
+    private transient volatile PayloadCache<T> payloads;
     
     private final Block<T> previous;
 
-    private final int hash;
+    private final String algorithm;
+
+    private final byte[] hash;
+
+    private transient volatile byte[] merkleRoot;
+
+    private transient ChainIndex<T> chain;
+
+    private transient Block<T> skip;
+
+    private transient volatile Validity validity = Validity.UNKNOWN;
     
     /**
-     * Create the first block of the chain.
+     * Create the first block of the chain, using the {@link #DEFAULT_ALGORITHM} to compute the digests of the chain.
      *
      * @param data
      *            The data contained in the block.
      */
     public Block(T data) {
+        this(data, DEFAULT_ALGORITHM);
+    }
+    
+    /**
+     * Create the first block of the chain.
+     * All the blocks of the chain use the same digest algorithm.
+     *
+     * @param data
+     *            The data contained in the block.
+     * @param algorithm
+     *            The name of the digest algorithm used by the chain, as accepted by {@link java.security.MessageDigest#getInstance(String)}.
+     * @throws IllegalArgumentException
+     *             If the algorithm is not available.
+     */
+    public Block(T data, String algorithm) {
         index = 0;
         this.data = data;
         previous = null;
-        hash = hashCode();
+        this.algorithm = algorithm;
+        hash = computeNewHash();
+        chain = ChainIndex.create(this);
     }
     
     /**
@@ -55,21 +98,124 @@ public class Block<T extends Serializable> implements Iterable<Block<T>>, Compar
      *            The data contained in the block.
      * @param previous
      *            The previous block in the chain.
+     * @throws ArithmeticException
+     *             If the chain already contains the maximum number of blocks.
      */
     public Block(T data, Block<T> previous) {
-        index = previous.index + 1;
+        index = Math.addExact(previous.index, 1L);
+        this.data = data;
+        this.previous = previous;
+        algorithm = previous.algorithm;
+        hash = computeNewHash();
+        chain = previous.chain.extend(this);
+        skip = previous.getAncestor(getSkipIndex(index));
+    }
+    
+    /**
+     * Restore a block whose digest is already known, without computing it again.
+     * If a cache of payloads is given, the data is not kept by the block but loaded through the cache when needed.
+     *
+     * @param data
+     *            The data contained in the block, or null if it is loaded through the cache of payloads.
+     * @param payloads
+     *            The cache loading the data of the block, or null if the data is kept by the block.
+     * @param previous
+     *            The previous block in the chain, or null for the first block.
+     * @param algorithm
+     *            The name of the digest algorithm used by the chain.
+     * @param hash
+     *            The stored digest of the block.
+     * @param validity
+     *            The validity of the chain ending with the block : {@link Validity#VALID} if the digest is trusted,
+     *            {@link Validity#UNKNOWN} if the block must be validated.
+     */
+    Block(T data, PayloadCache<T> payloads, Block<T> previous, String algorithm, byte[] hash, Validity validity) {
+        index = previous == null ? 0 : Math.addExact(previous.index, 1L);
         this.data = data;
+        this.payloads = payloads;
         this.previous = previous;
-        hash = hashCode();
+        this.algorithm = algorithm;
+        this.hash = hash;
+        this.validity = validity;
+        if (previous == null) {
+            chain = ChainIndex.create(this);
+        } else {
+            chain = previous.chain.extend(this);
+            skip = previous.getAncestor(getSkipIndex(index));
+        }
     }
     
     /**
      * Return the data contained in the block.
+     * If the data of the block is not kept on the heap, see {@link BlockStore#load(int)}, it is read from the store through a bounded cache.
      *
      * @return the data contained in the block.
      */
     public T getData() {
-        return data;
+        PayloadCache<T> cache = payloads;
+        if (cache == null) {
+            T value = data;
+            if (value != null) {
+                return value;
+            }
+            cache = payloads;
+            if (cache == null) {
+                return null;
+            }
+        }
+        return cache.get(index, hash);
+    }
+
+    /**
+     * Return the root of the Merkle tree of the block, if its data is a {@link Batch} : the digest of the block covers this root,
+     * so the items of the batch can be checked against the block with a {@link MerkleProof}, see {@link MerkleProof#verify(Serializable, Block)}.
+     * The root is computed once from the data, or received with the header of a block downloaded without its data.
+     *
+     * @return a read-only view of the Merkle root, or null if the data of the block is not a batch
+     */
+    public ByteBuffer getMerkleRoot() {
+        byte[] root = merkleRoot;
+        if (root == null) {
+            T value = getData();
+            root = value instanceof Batch ? ((Batch<?>) value).computeRoot() : NO_MERKLE_ROOT;
+            merkleRoot = root;
+        }
+        return root == NO_MERKLE_ROOT ? null : ByteBuffer.wrap(root).asReadOnlyBuffer();
+    }
+
+    /**
+     * Restore the Merkle root of a block, read from its header or from a store, so it is not computed again from the data.
+     *
+     * @param root
+     *            the Merkle root of the batch contained in the block, or an empty array if the data of the block is not a batch
+     */
+    void setMerkleRoot(byte[] root) {
+        merkleRoot = root.length == 0 ? NO_MERKLE_ROOT : root;
+    }
+
+    /**
+     * Stop keeping the data of the block on the heap, once the block has been saved in a store : the data is then read through a cache of payloads.
+     *
+     * @param payloads
+     *            the cache loading the data of the block from the store
+     * @return true if the data was kept on the heap, false if it was already read through a cache
+     */
+    boolean release(PayloadCache<T> payloads) {
+        if (this.payloads != null) {
+            return false;
+        }
+        this.payloads = payloads;
+        data = null;
+        return true;
+    }
+    
+    /**
+     * Return the position of the block in the chain. The first block of the chain has the index 0.
+     *
+     * @return the position of the block in the chain.
+     */
+    public long getIndex() {
+        return index;
     }
     
     /**
@@ -81,44 +227,200 @@ public class Block<T extends Serializable> implements Iterable<Block<T>>, Compar
         return previous;
     }
     
+    /**
+     * Return the block of the chain at the specified index.
+     * The block is read from the index of the chain, so the access time does not depend on the length of the chain.
+     *
+     * @param index
+     *            the index of the block, between 0 and the index of this block
+     * @return the block of the chain at the specified index.
+     * @throws IndexOutOfBoundsException
+     *             If the index is negative or greater than the index of this block.
+     */
+    public Block<T> get(long index) {
+        if (index < 0 || index > this.index) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", last index: " + this.index);
+        }
+        return chain.get(index);
+    }
+    
+    /**
+     * Return the ancestor of this block at the specified index.
+     * The ancestor is reached by following the skip pointers of the blocks, in O(log n) steps.
+     *
+     * @param index
+     *            the index of the ancestor, between 0 and the index of this block
+     * @return the ancestor of this block at the specified index.
+     * @throws IndexOutOfBoundsException
+     *             If the index is negative or greater than the index of this block.
+     */
+    public Block<T> getAncestor(long index) {
+        if (index < 0 || index > this.index) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", last index: " + this.index);
+        }
+        Block<T> block = this;
+        long blockIndex = this.index;
+        while (blockIndex > index) {
+            long skipIndex = getSkipIndex(blockIndex);
+            long previousSkipIndex = getSkipIndex(blockIndex - 1);
+            if (block.skip != null && (skipIndex == index || skipIndex > index && !(previousSkipIndex < skipIndex - 2 && previousSkipIndex >= index))) {
+                block = block.skip;
+                blockIndex = skipIndex;
+            } else {
+                block = block.previous;
+                blockIndex--;
+            }
+        }
+        return block;
+    }
+    
+    /**
+     * Return the latest block shared by this chain and another one.
+     * The ancestors are compared by their digest, using a binary search over the indexes, so only O(log n) ancestors are looked up.
+     *
+     * @param other
+     *            the other chain
+     * @return the latest block shared by the two chains, or null if the chains do not have the same first block.
+     */
+    public Block<T> findCommonAncestor(Block<T> other) {
+        long low = 0;
+        long high = Math.min(index, other.index);
+        if (!getAncestor(low).equals(other.getAncestor(low))) {
+            return null;
+        }
+        while (low < high) {
+            long middle = low + (high - low + 1) / 2;
+            if (getAncestor(middle).equals(other.getAncestor(middle))) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return getAncestor(low);
+    }
+    
     /**
      * Check if the block is valid
      *
      * @return true if the data in the block are not altered
      */
     public boolean isValid() {
-        return hash == hashCode();
+        return Arrays.equals(hash, computeHash());
+    }
+    
+    /**
+     * Return the digest of the block, computed when the block was created.
+     *
+     * @return a read-only view of the digest of the block.
+     */
+    public ByteBuffer getHash() {
+        return ByteBuffer.wrap(hash).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Return the name of the digest algorithm used by the chain.
+     *
+     * @return the name of the digest algorithm used by the chain.
+     */
+    public String getAlgorithm() {
+        return algorithm;
     }
     
     /**
-     * Returns a sequential Stream with this blockchain as its source.
+     * Returns a sequential Stream with this blockchain as its source, sorted from the first block to this one.
      *
      * @return a sequential Stream with this blockchain as its source.
      */
     public Stream<Block<T>> stream() {
-        return StreamSupport.stream(Spliterators.spliterator(iterator(), 0L, Spliterator.ORDERED), false);
+        return StreamSupport.stream(spliterator(), false);
+    }
+    
+    /**
+     * Returns a possibly parallel Stream with this blockchain as its source, sorted from the first block to this one.
+     * The chain is split evenly using its index, so the stream can be processed by the common ForkJoinPool.
+     *
+     * @return a possibly parallel Stream with this blockchain as its source.
+     */
+    public Stream<Block<T>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+    
+    /**
+     * Returns a Spliterator over the chain, from the first block to this one.
+     * It is sized and can be split evenly in constant time.
+     *
+     * @return a Spliterator over the chain.
+     */
+    @Override
+    public Spliterator<Block<T>> spliterator() {
+        return spliterator(0);
+    }
+    
+    Spliterator<Block<T>> spliterator(long from) {
+        return new BlockSpliterator<>(chain, from, index + 1L);
     }
     
     /**
-     * Check if the whole chain is valid
+     * Check if the whole chain is valid.
+     * The validity is memoized, so only the blocks appended since the last validation are checked.
      *
      * @return true if all the previous block to the index 0 are valid
      */
     public boolean isWholeChainValid() {
-        return this.stream().allMatch(Block::isValid);
+        return validate().isValid();
+    }
+    
+    /**
+     * Validate the whole chain in a single pass.
+     * Only the blocks appended after the latest validated ancestor are checked.
+     *
+     * @return the result of the validation, with the index of the first invalid block and the time taken.
+     */
+    public ValidationResult validate() {
+        return ChainValidator.validate(this, true);
+    }
+    
+    /**
+     * Return the memoized validity of the chain ending with this block.
+     *
+     * @return the validity of the chain, or {@link Validity#UNKNOWN} if it has not been validated yet.
+     */
+    public Validity getValidity() {
+        return validity;
+    }
+    
+    void setValidity(Validity validity) {
+        this.validity = validity;
     }
     
+    /**
+     * Compute the digest of the block from its own fields and the digest stored in the previous block.
+     * The previous block is not hashed again, so the cost does not depend on the length of the chain.
+     *
+     * @return the digest of the block
+     */
+    private byte[] computeHash() {
+        return HashUtils.digest(algorithm, index, index == 0 ? null : previous.hash, getData());
+    }
+
+    /**
+     * Compute the digest of a new block, keeping the Merkle root of its data if it is a batch.
+     */
+    private byte[] computeNewHash() {
+        if (data instanceof Batch) {
+            merkleRoot = ((Batch<?>) data).computeRoot();
+            return HashUtils.digest(algorithm, index, index == 0 ? null : previous.hash, merkleRoot);
+        }
+        merkleRoot = NO_MERKLE_ROOT;
+        return computeHash();
+    }
+
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(data)
-                .append(index)
-                .append(index == 0 ? 0 : previous)
-                .toHashCode();
+        return ByteBuffer.wrap(hash).getInt();
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean equals(Object obj) {
         if (this == obj) {
             return true;
@@ -126,36 +428,62 @@ public class Block<T extends Serializable> implements Iterable<Block<T>>, Compar
         if (obj == null || !(obj instanceof Block)) {
             return false;
         }
-        Block<T> other = (Block<T>) obj;
-        return new EqualsBuilder()
-                .append(data, other.data)
-                .append(index, other.index)
-                .append(index == 0 ? 0 : previous, index == 0 ? 0 : other.previous)
-                .isEquals();
+        Block<?> other = (Block<?>) obj;
+        return index == other.index && Arrays.equals(hash, other.hash);
     }
 
+    /**
+     * Returns an iterator over the chain, from the first block to this one.
+     * The blocks are read from the index of the chain, without copying the chain.
+     *
+     * @return an iterator over the chain, from the first block to this one.
+     */
     @Override
     public Iterator<Block<T>> iterator() {
-        List<Block<T>> list = new ArrayList<>();
+        return new BlockIterator();
+    }
 
-        Block<T> block = this;
-        while (block != null) {
-            list.add(block);
-            block = block.previous;
-        }
-        return new BlockIterator(list.listIterator(list.size()));
+    /**
+     * Returns an iterator over the chain, from this block to the first one.
+     * It only follows the previous blocks, without allocating anything else than the iterator.
+     *
+     * @return an iterator over the chain, from this block to the first one.
+     */
+    public Iterator<Block<T>> descendingIterator() {
+        return new DescendingBlockIterator();
     }
 
+    /**
+     * Return a short summary of the block : its index, the beginning of its digest and of the digest of the previous block.
+     * It does not validate anything, so it can be used for logging.
+     *
+     * @return a short summary of the block.
+     */
     @Override
     public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("index", index)
+                .append("hash", HashUtils.toShortHex(hash))
+                .append("previous", index == 0 ? null : HashUtils.toShortHex(previous.hash))
+                .build();
+    }
+
+    /**
+     * Return a full description of the block, with its data, its digests and the validity of the block and of the whole chain.
+     * The chain is validated if it has not been yet, so the cost of this method can be the cost of a whole validation.
+     *
+     * @return a full description of the block.
+     */
+    public String toDiagnosticString() {
         String lineStarter = "\n\t";
         return new ToStringBuilder(this)
                 .append(lineStarter + "Index", index)
-                .append(lineStarter + "Data", data)
-                .append(lineStarter + "Hash", hash)
-                .append(lineStarter + "Previous block hash", index == 0 ? 0 : previous.hash)
+                .append(lineStarter + "Data", getData())
+                .append(lineStarter + "Algorithm", algorithm)
+                .append(lineStarter + "Hash", HashUtils.toHex(hash))
+                .append(lineStarter + "Previous block hash", index == 0 ? 0 : HashUtils.toHex(previous.hash))
                 .append(lineStarter + "Validity", isValid())
-                .append(lineStarter + "Whole chain validity", isWholeChainValid())
+                .append(lineStarter + "Whole chain validation", validate())
                 .build();
     }
     
@@ -166,20 +494,130 @@ public class Block<T extends Serializable> implements Iterable<Block<T>>, Compar
         if (!firstChainValid || !secondChainValid) {
             return Boolean.compare(firstChainValid, secondChainValid);
         }
-        return Integer.compare(this.index, o.index);
+        return Long.compare(this.index, o.index);
+    }
+
+    /**
+     * Serialize the chain through a {@link SerializationProxy}, which writes the blocks one after the other
+     * instead of following the previous blocks recursively.
+     *
+     * @return the serialization proxy of the chain
+     */
+    private Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A block must be deserialized through its serialization proxy");
+    }
+
+    /**
+     * The serialized form of a chain.
+     * The blocks are written from the first to the last one, each one with its digest, its data and the Merkle root of its data,
+     * and the chain is rebuilt iteratively. So a chain of any length is serialized with a constant stack depth.
+     * The stored digests are kept, so an altered block is still detected by the validation, and a Merkle root is only kept
+     * if the digest of the block covers it.
+     */
+    private static final class SerializationProxy<T extends Serializable> implements Serializable {
+
+        private static final long serialVersionUID = 2L;
+
+        private transient Block<T> tip;
+
+        private SerializationProxy(Block<T> tip) {
+            this.tip = tip;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeLong(tip.index + 1);
+            out.writeUTF(tip.algorithm);
+            for (Block<T> block : tip) {
+                out.writeInt(block.hash.length);
+                out.write(block.hash);
+                out.writeObject(block.getData());
+                ByteBuffer root = block.getMerkleRoot();
+                out.writeShort(root == null ? 0 : root.remaining());
+                if (root != null) {
+                    out.write(HashUtils.toArray(root));
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            long count = in.readLong();
+            String algorithm = in.readUTF();
+            Block<T> block = null;
+            for (long index = 0; index < count; index++) {
+                byte[] hash = new byte[in.readInt()];
+                in.readFully(hash);
+                T data = (T) in.readObject();
+                byte[] root = new byte[in.readUnsignedShort()];
+                in.readFully(root);
+                byte[] previousHash = block == null ? null : block.hash;
+                block = new Block<>(data, null, block, algorithm, hash, Validity.UNKNOWN);
+                if (root.length == 0 ? !(data instanceof Batch) : Arrays.equals(hash, HashUtils.digest(algorithm, index, previousHash, root))) {
+                    block.setMerkleRoot(root);
+                }
+            }
+            tip = block;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            if (tip == null) {
+                throw new InvalidObjectException("Empty chain");
+            }
+            return tip;
+        }
+    }
+
+    /**
+     * Return the index of the block targeted by the skip pointer of the block at the specified index.
+     * The skip indexes are spread so that any ancestor can be reached in a logarithmic number of jumps.
+     *
+     * @param index
+     *            the index of the block
+     * @return the index of the block targeted by its skip pointer
+     */
+    private static long getSkipIndex(long index) {
+        if (index < 2) {
+            return 0;
+        }
+        return (index & 1) == 0 ? clearLowestBit(index) : clearLowestBit(clearLowestBit(index - 1)) + 1;
+    }
+
+    private static long clearLowestBit(long value) {
+        return value & (value - 1);
     }
 
     private class BlockIterator implements Iterator<Block<T>> {
         
-        ListIterator<Block<T>> itr;
-        
-        private BlockIterator(ListIterator<Block<T>> listIterator) {
-            itr = listIterator;
+        private long next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next <= index;
+        }
+
+        @Override
+        public Block<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chain.get(next++);
         }
+        
+    }
+
+    private class DescendingBlockIterator implements Iterator<Block<T>> {
+        
+        private Block<T> next = Block.this;
 
         @Override
         public boolean hasNext() {
-            return itr.hasPrevious();
+            return next != null;
         }
 
         @Override
@@ -187,7 +625,9 @@ public class Block<T extends Serializable> implements Iterable<Block<T>>, Compar
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            return itr.previous();
+            Block<T> current = next;
+            next = current.previous;
+            return current;
         }
         
     }
@@ -213,13 +653,109 @@ public class Block<T extends Serializable> implements Iterable<Block<T>>, Compar
     
     /**
      * Check if any block of the chain contains a data.
-     * It uses the method equals of T to check the equality.
+     * It uses the methods hashCode and equals of T to check the equality.
+     * The hash codes of the data of the chain are indexed on first call, then the index is maintained as blocks are appended,
+     * so the next calls are done in constant time.
      *
      * @param object
      *            the data to check
      * @return true if any data in the chain is equals to the specified data.
      */
     public boolean contains(T object) {
-        return stream().anyMatch(data -> data.equals(object));
+        return indexOf(object) >= 0;
+    }
+    
+    /**
+     * Return the index of the first block of the chain containing a data.
+     * It uses the methods hashCode and equals of T to check the equality, and the same index as {@link #contains(Serializable)}.
+     *
+     * @param object
+     *            the data to look for
+     * @return the index of the first block containing the data, or -1 if no block of the chain contains it.
+     */
+    public long indexOf(T object) {
+        return chain.indexOfData(object, index);
+    }
+    
+    /**
+     * Enable a Bloom filter over the data of the chain, used by {@link #contains(Serializable)} and {@link #indexOf(Serializable)}
+     * to answer most lookups of data absent from the chain without touching the blocks.
+     * The filter is checked before the index of the data : the lookups it can not answer, for the data present in the chain
+     * and for its false positives, are answered by the index of the data.
+     * The filter is shared by all the blocks of the chain, and is maintained as blocks are appended.
+     * The chain is split into segments of growing size, each one with its own filter, so the filters of the old segments are never written again.
+     *
+     * @param falsePositiveRate
+     *            the expected false positive rate of the filter, between 0 and 1 exclusive
+     * @throws IllegalArgumentException
+     *             If the false positive rate is not between 0 and 1 exclusive.
+     */
+    public void enableBloomFilter(double falsePositiveRate) {
+        chain.enableBloomFilter(falsePositiveRate);
+    }
+    
+    /**
+     * Return the counters of the Bloom filter of the chain, to monitor its hit rate.
+     *
+     * @return the counters of the Bloom filter of the chain, or null if it is not enabled.
+     */
+    public BloomFilterStats getBloomFilterStats() {
+        return chain.getBloomFilterStats();
+    }
+    
+    /**
+     * Return all the blocks of the chain whose data matches a predicate, from the first block to this one.
+     * Every block of the chain is tested, see {@link #findAll(Function, Object)} to look up the blocks by key.
+     *
+     * @param predicate
+     *            the predicate to test the data of the blocks
+     * @return the blocks whose data matches the predicate
+     */
+    public List<Block<T>> findAll(Predicate<? super T> predicate) {
+        return parallelStream().filter(block -> predicate.test(block.getData())).collect(Collectors.toList());
+    }
+    
+    /**
+     * Index the data of the chain by a key, so {@link #findAll(Function, Object)} does not test every block with this key extractor.
+     * The index is built from the blocks of the chain, then maintained as blocks are appended. It is shared by all the blocks of the chain
+     * and inherited by its forks. It only keeps the hash codes of the keys.
+     *
+     * @param keyExtractor
+     *            the function extracting the key from the data of a block. The same instance must be given to {@link #findAll(Function, Object)}.
+     * @throws IllegalStateException
+     *             If {@value ChainIndex#MAX_KEY_INDEXES} key indexes are already registered on the chain.
+     */
+    public void addKeyIndex(Function<? super T, ?> keyExtractor) {
+        chain.addKeyIndex(keyExtractor);
+    }
+
+    /**
+     * Drop an index registered with {@link #addKeyIndex(Function)}.
+     *
+     * @param keyExtractor
+     *            the function given to {@link #addKeyIndex(Function)}
+     */
+    public void removeKeyIndex(Function<? super T, ?> keyExtractor) {
+        chain.removeKeyIndex(keyExtractor);
+    }
+
+    /**
+     * Return all the blocks of the chain whose data has the specified key, from the first block to this one.
+     * If the key extractor has been registered with {@link #addKeyIndex(Function)}, the blocks are looked up in the index,
+     * otherwise every block of the chain is tested.
+     *
+     * @param <K>
+     *            the class of the key
+     * @param keyExtractor
+     *            the function extracting the key from the data of a block
+     * @param key
+     *            the key to look for
+     * @return the blocks whose data has the specified key
+     */
+    public <K> List<Block<T>> findAll(Function<? super T, ? extends K> keyExtractor, K key) {
+        if (!chain.hasKeyIndex(keyExtractor)) {
+            return findAll(data -> Objects.equals(keyExtractor.apply(data), key));
+        }
+        return chain.findAll(keyExtractor, key, index).stream().map(chain::get).collect(Collectors.toList());
     }
 }
@@ -0,0 +1,44 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Encode and decode a range of blocks of a chain, to send them to other nodes.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public interface BlockCodec<T extends Serializable> {
+
+    /**
+     * Encode the blocks of a chain, from the specified index to the last block.
+     *
+     * @param tip
+     *            the last block of the chain
+     * @param from
+     *            the index of the first block to encode
+     * @param out
+     *            the stream receiving the encoded blocks
+     * @throws IOException
+     *             If the blocks can not be written.
+     */
+    void encode(Block<T> tip, long from, OutputStream out) throws IOException;
+
+    /**
+     * Decode a range of blocks, and chain them to a local block if the range does not start with the first block.
+     *
+     * @param in
+     *            the stream containing the encoded blocks
+     * @param chain
+     *            a local chain containing the previous block of the range, or null if the range starts with the first block
+     * @return the last decoded block
+     * @throws IOException
+     *             If the blocks can not be read, or if they do not match their digests.
+     * @throws MissingParentException
+     *             If the local chain does not contain the previous block of the range.
+     */
+    Block<T> decode(InputStream in, Block<T> chain) throws IOException;
+}
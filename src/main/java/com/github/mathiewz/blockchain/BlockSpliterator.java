@@ -0,0 +1,74 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over a range of positions of a chain.
+ * The blocks are read from the index of the chain, so the range can be split evenly in constant time.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+final class BlockSpliterator<T extends Serializable> implements Spliterator<Block<T>> {
+
+    private final ChainIndex<T> chain;
+
+    private long position;
+
+    private final long end;
+
+    /**
+     * Create a Spliterator over the blocks of a chain.
+     *
+     * @param chain
+     *            the index of the chain
+     * @param position
+     *            the position of the first block, inclusive
+     * @param end
+     *            the position of the last block, exclusive
+     */
+    BlockSpliterator(ChainIndex<T> chain, long position, long end) {
+        this.chain = chain;
+        this.position = position;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Block<T>> action) {
+        if (position >= end) {
+            return false;
+        }
+        action.accept(chain.get(position++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Block<T>> action) {
+        while (position < end) {
+            action.accept(chain.get(position++));
+        }
+    }
+
+    @Override
+    public Spliterator<Block<T>> trySplit() {
+        long middle = position + (end - position) / 2;
+        if (middle <= position) {
+            return null;
+        }
+        Spliterator<Block<T>> prefix = new BlockSpliterator<>(chain, position, middle);
+        position = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - position;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+    }
+}
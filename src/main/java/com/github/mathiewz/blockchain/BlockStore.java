@@ -0,0 +1,747 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only store of the blocks of a chain on disk.
+ * <p>
+ * The blocks are serialized one after the other into segment files of a fixed size, which are read and written through a
+ * {@link MappedByteBuffer}. A block is never split over two segments. The offset of each block is kept in memory,
+ * so any block can be read by its index without deserializing the others.
+ * <p>
+ * Each record is made of its length, the index of the block, the digest algorithm, the digest of the block, the serialized data,
+ * the Merkle root of the data prefixed by its length as a short, or a zero length if the data is not a {@link Batch},
+ * and a CRC-32 of the record. A zero length marks the end of the stored chain. The records written before the Merkle roots were stored
+ * end after the data : they are still read, and the root of their data is computed from the data when it is needed. When the store is opened, the stored chain is cut
+ * before the first record after the checkpoint which is incomplete or does not match its checksum, so a store written up to a crash
+ * can be opened again.
+ * <p>
+ * A checkpoint of the store is written every {@link #DEFAULT_CHECKPOINT_INTERVAL} blocks by default, so the store can be reopened
+ * without scanning the segments, and the checkpointed blocks are loaded without computing their digests again.
+ * The offsets of the blocks appended since the previous checkpoint are appended to an offset table file, then a small checkpoint file
+ * with the number of blocks and the digest of the last one is replaced, so the cost of a checkpoint does not depend on the length of the chain.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public class BlockStore<T extends Serializable> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockStore.class);
+
+    /**
+     * The size of the segment files used when none is specified.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The number of appended blocks after which a checkpoint is written, when none is specified.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 10_000;
+
+    private static final String SEGMENT_FORMAT = "segment-%08d.dat";
+
+    private static final String CHECKPOINT_FILE = "checkpoint.dat";
+
+    private static final String CHECKPOINT_TEMPORARY_FILE = "checkpoint.tmp";
+
+    private static final String OFFSETS_FILE = "offsets.dat";
+
+    private static final int OFFSET_CHUNK_SHIFT = 16;
+
+    private static final int OFFSET_CHUNK_SIZE = 1 << OFFSET_CHUNK_SHIFT;
+
+    private static final int OFFSET_CHUNK_MASK = OFFSET_CHUNK_SIZE - 1;
+
+    /**
+     * The length of a record with an empty algorithm name, digest and data.
+     */
+    private static final int MIN_RECORD_LENGTH = Integer.BYTES + Long.BYTES + Short.BYTES + Integer.BYTES + Integer.BYTES + Integer.BYTES;
+
+    /**
+     * The lock guarding the store. It is not a monitor, so the virtual threads waiting while the segments are forced to the disk
+     * do not pin their carrier threads.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final long checkpointInterval;
+
+    private long checkpointSize;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /**
+     * The segments written since the last flush.
+     */
+    private final BitSet dirtySegments = new BitSet();
+
+    private long[][] offsets = new long[1][];
+
+    private long size;
+
+    private int writePosition;
+
+    private PayloadCache<T> payloads;
+
+    /**
+     * Open the store located in a directory, using segments of {@link #DEFAULT_SEGMENT_SIZE} bytes.
+     * The directory is created if it does not exist.
+     *
+     * @param directory
+     *            the directory containing the segment files
+     * @throws IOException
+     *             If the store can not be read.
+     */
+    public BlockStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the store located in a directory.
+     * The directory is created if it does not exist.
+     *
+     * @param directory
+     *            the directory containing the segment files
+     * @param segmentSize
+     *            the size of each segment file, in bytes. It must be the same each time the store is opened.
+     * @throws IOException
+     *             If the store can not be read.
+     */
+    public BlockStore(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Open the store located in a directory.
+     * The directory is created if it does not exist.
+     *
+     * @param directory
+     *            the directory containing the segment files
+     * @param segmentSize
+     *            the size of each segment file, in bytes. It must be the same each time the store is opened.
+     * @param checkpointInterval
+     *            the number of blocks saved after which a checkpoint is written, or 0 to only write them with {@link #checkpoint()}
+     * @throws IOException
+     *             If the store can not be read.
+     */
+    public BlockStore(Path directory, int segmentSize, long checkpointInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.checkpointInterval = checkpointInterval;
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        readCheckpoint();
+        scan();
+        LOGGER.info("{} blocks found in the store {} ({} from the checkpoint) in {} ms", size, directory, checkpointSize, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Return the number of blocks in the store.
+     *
+     * @return the number of blocks in the store.
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a block to the store. Its index must be the number of blocks already stored.
+     * If the chain has been loaded by {@link #load(int)}, the block does not keep its data on the heap once it is stored.
+     *
+     * @param block
+     *            the block to append
+     * @throws IOException
+     *             If the block can not be written.
+     * @throws IllegalArgumentException
+     *             If the index of the block does not follow the last stored block, or if the block does not fit in a segment.
+     */
+    public void append(Block<T> block) throws IOException {
+        lock.lock();
+        try {
+            if (block.getIndex() != size) {
+                throw new IllegalArgumentException("Expected the block " + size + " but was " + block.getIndex());
+            }
+            byte[] algorithm = block.getAlgorithm().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer hash = block.getHash();
+            byte[] payload = SerializationUtils.serialize(block.getData());
+            ByteBuffer root = block.getMerkleRoot();
+            int rootLength = root == null ? 0 : root.remaining();
+            int length = MIN_RECORD_LENGTH + algorithm.length + hash.remaining() + payload.length + Short.BYTES + rootLength;
+            if (length + Integer.BYTES > segmentSize) {
+                throw new IllegalArgumentException("The block " + block.getIndex() + " does not fit in a segment : " + length + " bytes");
+            }
+            if (segments.isEmpty() || writePosition + length + Integer.BYTES > segmentSize) {
+                segments.add(map(segments.size()));
+                writePosition = 0;
+            }
+            ByteBuffer buffer = segments.get(segments.size() - 1).duplicate();
+            buffer.position(writePosition);
+            buffer.putInt(length)
+                    .putLong(block.getIndex())
+                    .putShort((short) algorithm.length)
+                    .put(algorithm)
+                    .putInt(hash.remaining())
+                    .put(hash)
+                    .putInt(payload.length)
+                    .put(payload)
+                    .putShort((short) rootLength)
+                    .put(root == null ? ByteBuffer.allocate(0) : root)
+                    .putInt(checksum(buffer, writePosition + Integer.BYTES, writePosition + length - Integer.BYTES))
+                    .putInt(0);
+            dirtySegments.set(segments.size() - 1);
+            setOffset(size, (long) (segments.size() - 1) << 32 | writePosition);
+            writePosition += length;
+            size++;
+            if (payloads != null) {
+                block.release(payloads);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make the stored chain end with the specified block.
+     * The blocks already stored and shared with the chain are kept, the others are replaced by the blocks of the chain.
+     * If the chain has been loaded by {@link #load(int)}, the blocks of the chain do not keep their data on the heap once they are stored.
+     *
+     * @param tip
+     *            the last block of the chain to store
+     * @throws IOException
+     *             If the blocks can not be written.
+     */
+    public void save(Block<T> tip) throws IOException {
+        lock.lock();
+        try {
+            long low = 0;
+            long high = Math.min(size, tip.getIndex() + 1);
+            while (low < high) {
+                long middle = low + (high - low + 1) / 2;
+                if (Arrays.equals(readHash(middle - 1), HashUtils.toArray(tip.get(middle - 1).getHash()))) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            for (long shared = low - 1; payloads != null && shared >= 0 && tip.get(shared).release(payloads); shared--) {
+                LOGGER.trace("The block {} shared with the store does not keep its data on the heap", shared);
+            }
+            if (low < size) {
+                truncate(low);
+            }
+            for (long index = size; index <= tip.getIndex(); index++) {
+                append(tip.get(index));
+            }
+            if (checkpointInterval > 0 && size - checkpointSize >= checkpointInterval) {
+                checkpoint();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write a checkpoint of the store : the offsets of the blocks appended since the previous checkpoint are appended to the offset table,
+     * then the number of blocks and the digest of the last one are written in the checkpoint file.
+     * The segments and the offset table are written to the disk first, and the checkpoint file is replaced atomically.
+     *
+     * @throws IOException
+     *             If the checkpoint can not be written.
+     */
+    public void checkpoint() throws IOException {
+        lock.lock();
+        try {
+            if (size == 0 || size == checkpointSize) {
+                return;
+            }
+            flush();
+            try (FileChannel table = FileChannel.open(directory.resolve(OFFSETS_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(OFFSET_CHUNK_SIZE * Long.BYTES);
+                long index = checkpointSize;
+                while (index < size) {
+                    long position = index * Long.BYTES;
+                    buffer.clear();
+                    while (index < size && buffer.hasRemaining()) {
+                        buffer.putLong(getOffset(index++));
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += table.write(buffer, position);
+                    }
+                }
+                table.force(false);
+            }
+            writeCheckpoint(size);
+            LOGGER.debug("Checkpoint of {} blocks written in the store {}", size, directory);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the checkpoint file, which makes the first entries of the offset table valid.
+     */
+    private void writeCheckpoint(long checkpointedSize) throws IOException {
+        byte[] hash = readHash(checkpointedSize - 1);
+        ByteBuffer checkpoint = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + Integer.BYTES + hash.length + Integer.BYTES);
+        checkpoint.putInt(segmentSize).putLong(checkpointedSize).putInt(hash.length).put(hash);
+        checkpoint.putInt(checksum(checkpoint, 0, checkpoint.position()));
+        Path temporary = directory.resolve(CHECKPOINT_TEMPORARY_FILE);
+        Files.write(temporary, checkpoint.array());
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointSize = checkpointedSize;
+    }
+
+    /**
+     * Remove the blocks stored after the specified number of blocks.
+     *
+     * @param newSize
+     *            the number of blocks to keep
+     * @throws IOException
+     *             If the segments can not be updated.
+     */
+    public void truncate(long newSize) throws IOException {
+        lock.lock();
+        try {
+            if (newSize < 0 || newSize > size) {
+                throw new IllegalArgumentException("Can not truncate " + size + " blocks to " + newSize);
+            }
+            if (newSize == size) {
+                return;
+            }
+            if (newSize < checkpointSize) {
+                if (newSize == 0) {
+                    Files.deleteIfExists(directory.resolve(CHECKPOINT_FILE));
+                    checkpointSize = 0;
+                } else {
+                    writeCheckpoint(newSize);
+                }
+            }
+            int segment = 0;
+            int position = 0;
+            if (newSize > 0) {
+                long offset = getOffset(newSize - 1);
+                segment = (int) (offset >>> 32);
+                position = (int) offset;
+                position += segments.get(segment).getInt(position);
+            }
+            while (segments.size() > segment + 1) {
+                segments.remove(segments.size() - 1);
+                Files.delete(getSegmentPath(segments.size()));
+            }
+            dirtySegments.clear(segment + 1, Math.max(segment + 1, dirtySegments.length()));
+            if (!segments.isEmpty()) {
+                segments.get(segment).putInt(position, 0);
+                dirtySegments.set(segment);
+            }
+            writePosition = position;
+            size = newSize;
+            if (payloads != null) {
+                payloads.evictFrom(newSize);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read the data of the block at the specified index.
+     *
+     * @param index
+     *            the index of the block
+     * @return the data of the block
+     */
+    public T readData(long index) {
+        lock.lock();
+        try {
+            ByteBuffer record = getRecord(index);
+            skipHeader(record);
+            byte[] payload = new byte[record.getInt()];
+            record.get(payload);
+            return SerializationUtils.deserialize(payload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read the data of a block, checking that it is still stored.
+     *
+     * @throws IllegalStateException
+     *             If the block has been removed from the store, or replaced by a block of another fork.
+     */
+    private T readData(long index, byte[] hash) {
+        lock.lock();
+        try {
+            if (index >= size || !Arrays.equals(readHash(index), hash)) {
+                throw new IllegalStateException("The block " + index + " is no longer in the store " + directory);
+            }
+            return readData(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read the digest of the block at the specified index.
+     *
+     * @param index
+     *            the index of the block
+     * @return the digest of the block
+     */
+    public byte[] readHash(long index) {
+        lock.lock();
+        try {
+            ByteBuffer record = getRecord(index);
+            skipAlgorithm(record);
+            byte[] hash = new byte[record.getInt()];
+            record.get(hash);
+            return hash;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuild the chain stored in the store.
+     * The blocks covered by the checkpoint are restored with their stored digest and considered as valid.
+     * The next ones are created again from their data, and their digest is checked against the stored one :
+     * the store is truncated before the first block which does not match its digest.
+     *
+     * @return the last block of the chain, or null if the store is empty.
+     * @throws IOException
+     *             If the store can not be truncated.
+     */
+    public Block<T> load() throws IOException {
+        lock.lock();
+        try {
+            return load(null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuild the chain stored in the store, without keeping the data of the blocks on the heap.
+     * Only the headers of the checkpointed blocks are read : their data stay in the segments and are read through
+     * a bounded LRU cache when needed. The blocks appended after the checkpoint are loaded and checked as by {@link #load()},
+     * then their data is released. The blocks appended or saved in the store afterwards also release their data once they are stored.
+     * The store must stay open as long as the chain is used.
+     *
+     * @param cacheSize
+     *            the maximum number of data kept on the heap
+     * @return the last block of the chain, or null if the store is empty.
+     * @throws IOException
+     *             If the store can not be truncated.
+     */
+    public Block<T> load(int cacheSize) throws IOException {
+        lock.lock();
+        try {
+            payloads = new PayloadCache<>(this::readData, cacheSize);
+            return load(payloads);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Block<T> load(PayloadCache<T> payloads) throws IOException {
+        Block<T> block = null;
+        for (long index = 0; index < size; index++) {
+            ByteBuffer record = getRecord(index);
+            int end = record.position() + record.getInt(record.position() - Integer.BYTES) - 2 * Integer.BYTES;
+            record.position(record.position() + Long.BYTES);
+            byte[] algorithm = new byte[record.getShort()];
+            record.get(algorithm);
+            byte[] hash = new byte[record.getInt()];
+            record.get(hash);
+            if (index < checkpointSize && payloads != null) {
+                block = new Block<>(null, payloads, block, new String(algorithm, StandardCharsets.UTF_8), hash, Validity.VALID);
+                int payloadLength = record.getInt();
+                record.position(record.position() + payloadLength);
+                restoreMerkleRoot(block, record, end);
+                continue;
+            }
+            byte[] payload = new byte[record.getInt()];
+            record.get(payload);
+            T data = SerializationUtils.deserialize(payload);
+            Block<T> loaded;
+            if (index < checkpointSize) {
+                loaded = new Block<>(data, null, block, new String(algorithm, StandardCharsets.UTF_8), hash, Validity.VALID);
+                restoreMerkleRoot(loaded, record, end);
+            } else if (block == null) {
+                loaded = new Block<>(data, new String(algorithm, StandardCharsets.UTF_8));
+            } else {
+                loaded = new Block<>(data, block);
+            }
+            if (!Arrays.equals(hash, HashUtils.toArray(loaded.getHash()))) {
+                LOGGER.warn("The block {} of the store {} does not match its digest, the store is truncated to {} blocks", index, directory, index);
+                truncate(index);
+                break;
+            }
+            if (payloads != null) {
+                loaded.release(payloads);
+            }
+            block = loaded;
+        }
+        return block;
+    }
+
+    /**
+     * Restore the Merkle root of a checkpointed block from its record, positioned after the data, so the data is not read to compute it.
+     * The records written without the root end before the specified position, and the root of their block is left to compute.
+     */
+    private static void restoreMerkleRoot(Block<?> block, ByteBuffer record, int end) {
+        if (record.position() < end) {
+            byte[] root = new byte[Short.toUnsignedInt(record.getShort())];
+            record.get(root);
+            block.setMerkleRoot(root);
+        }
+    }
+
+    /**
+     * Write the content of the segments to the disk.
+     * Only the segments written since the last flush are forced, so the cost of a flush does not depend on the length of the chain.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            for (int segment = dirtySegments.nextSetBit(0); segment >= 0 && segment < segments.size(); segment = dirtySegments.nextSetBit(segment + 1)) {
+                segments.get(segment).force();
+            }
+            dirtySegments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            flush();
+            segments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read the offset table from the checkpoint, if there is one matching the segments.
+     * A checkpoint which can not be read is ignored, and all the segments are scanned.
+     */
+    private void readCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            readCheckpoint(path);
+        } catch (RuntimeException e) {
+            LOGGER.warn("The checkpoint of the store {} is corrupted, the segments will be scanned", directory, e);
+            offsets = new long[1][];
+            segments.clear();
+            size = 0;
+            checkpointSize = 0;
+            writePosition = 0;
+        }
+    }
+
+    private void readCheckpoint(Path path) throws IOException {
+        ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(path));
+        long checkpointedSize = checkpoint.getInt() == segmentSize ? checkpoint.getLong() : 0;
+        byte[] hash = new byte[checkpointedSize == 0 ? 0 : checkpoint.getInt()];
+        checkpoint.get(hash);
+        if (checkpointedSize > 0 && checkpoint.getInt(checkpoint.position()) != checksum(checkpoint, 0, checkpoint.position())) {
+            throw new IllegalStateException("The checkpoint does not match its checksum");
+        }
+        Path tablePath = directory.resolve(OFFSETS_FILE);
+        if (!Files.exists(tablePath)) {
+            throw new IllegalStateException("The offset table is missing");
+        }
+        try (FileChannel table = FileChannel.open(tablePath, StandardOpenOption.READ)) {
+            if (table.size() < checkpointedSize * Long.BYTES) {
+                throw new IllegalStateException("The offset table is shorter than the checkpoint");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(OFFSET_CHUNK_SIZE * Long.BYTES);
+            long index = 0;
+            while (index < checkpointedSize) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), (checkpointedSize - index) * Long.BYTES));
+                while (buffer.hasRemaining()) {
+                    if (table.read(buffer, index * Long.BYTES + buffer.position()) < 0) {
+                        throw new IllegalStateException("The offset table is shorter than the checkpoint");
+                    }
+                }
+                buffer.flip();
+                LongBuffer offsetsRead = buffer.asLongBuffer();
+                while (offsetsRead.hasRemaining()) {
+                    setOffset(index++, offsetsRead.get());
+                }
+            }
+        }
+        int lastSegment = checkpointedSize == 0 ? -1 : (int) (getOffset(checkpointedSize - 1) >>> 32);
+        for (int segment = 0; segment <= lastSegment && Files.exists(getSegmentPath(segment)); segment++) {
+            segments.add(map(segment));
+        }
+        size = segments.size() == lastSegment + 1 ? checkpointedSize : 0;
+        if (size > 0 && Arrays.equals(hash, readHash(size - 1))) {
+            checkpointSize = size;
+            long offset = getOffset(size - 1);
+            writePosition = (int) offset + segments.get(lastSegment).getInt((int) offset);
+        } else {
+            LOGGER.warn("The checkpoint of the store {} does not match its segments, they will be scanned", directory);
+            size = 0;
+            segments.clear();
+        }
+    }
+
+    /**
+     * Read the offsets of the blocks stored after the checkpoint, or of all the blocks if there is no checkpoint.
+     * The scan stops at the first record which is incomplete or does not match its checksum :
+     * the end of the chain is marked before it, and the next segments are deleted.
+     */
+    private void scan() throws IOException {
+        int first = segments.isEmpty() ? 0 : segments.size() - 1;
+        for (int segment = first; Files.exists(getSegmentPath(segment)); segment++) {
+            if (segment >= segments.size()) {
+                segments.add(map(segment));
+                writePosition = 0;
+            }
+            MappedByteBuffer buffer = segments.get(segment);
+            int length;
+            while ((length = checkRecord(buffer, writePosition)) > 0) {
+                setOffset(size, (long) segment << 32 | writePosition);
+                writePosition += length;
+                size++;
+            }
+            if (length < 0) {
+                LOGGER.warn("The record of the block {} in the store {} is corrupted, the store is truncated to {} blocks", size, directory, size);
+                buffer.putInt(writePosition, 0);
+                dirtySegments.set(segment);
+                for (int next = segment + 1; Files.deleteIfExists(getSegmentPath(next)); next++) {
+                    LOGGER.debug("Segment {} of the store {} deleted", next, directory);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check the record of the next block at the specified position of a segment.
+     *
+     * @return the length of the record, 0 if it is the end of the segment, or -1 if the record is corrupted.
+     */
+    private int checkRecord(ByteBuffer buffer, int position) {
+        if (position + Integer.BYTES > segmentSize) {
+            return 0;
+        }
+        int length = buffer.getInt(position);
+        if (length == 0) {
+            return 0;
+        }
+        if (length < MIN_RECORD_LENGTH || length > segmentSize - position - Integer.BYTES
+                || buffer.getLong(position + Integer.BYTES) != size
+                || buffer.getInt(position + length - Integer.BYTES) != checksum(buffer, position + Integer.BYTES, position + length - Integer.BYTES)) {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Compute the CRC-32 of a range of a buffer.
+     */
+    private static int checksum(ByteBuffer buffer, int from, int to) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(to);
+        range.position(from);
+        CRC32 crc = new CRC32();
+        crc.update(range);
+        return (int) crc.getValue();
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(getSegmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path getSegmentPath(int segment) {
+        return directory.resolve(String.format(SEGMENT_FORMAT, segment));
+    }
+
+    /**
+     * Return a buffer positioned after the length of the record of the specified block.
+     */
+    private ByteBuffer getRecord(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        long offset = getOffset(index);
+        ByteBuffer record = segments.get((int) (offset >>> 32)).duplicate();
+        record.position((int) offset + Integer.BYTES);
+        return record;
+    }
+
+    /**
+     * Move the position of a record buffer from the index of the block to the length of its digest.
+     */
+    private static void skipAlgorithm(ByteBuffer record) {
+        record.position(record.position() + Long.BYTES);
+        int algorithmLength = record.getShort();
+        record.position(record.position() + algorithmLength);
+    }
+
+    /**
+     * Move the position of a record buffer from the index of the block to the length of its data.
+     */
+    private static void skipHeader(ByteBuffer record) {
+        skipAlgorithm(record);
+        int hashLength = record.getInt();
+        record.position(record.position() + hashLength);
+    }
+
+    private long getOffset(long index) {
+        return offsets[(int) (index >>> OFFSET_CHUNK_SHIFT)][(int) (index & OFFSET_CHUNK_MASK)];
+    }
+
+    private void setOffset(long index, long offset) {
+        int chunk = (int) (index >>> OFFSET_CHUNK_SHIFT);
+        if (chunk >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        if (offsets[chunk] == null) {
+            offsets[chunk] = new long[OFFSET_CHUNK_SIZE];
+        }
+        offsets[chunk][(int) (index & OFFSET_CHUNK_MASK)] = offset;
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.mathiewz.blockchain;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A scalable Bloom filter over the data of the blocks of a chain, used to answer negative lookups
+ * without touching the blocks. It is shared by the branches of the chain, which add their blocks to it.
+ * <p>
+ * The blocks are split into segments, each one with its own filter. The first segment covers {@link #FIRST_SEGMENT_SIZE} blocks,
+ * and each next one covers twice as many blocks as the previous one, up to {@link #MAX_SEGMENT_SIZE} blocks, with a tighter
+ * false positive rate, so a lookup checks O(log n) segments and the false positive rate of the whole filter stays below the configured one.
+ * Once a segment is full its filter is frozen and never written again.
+ * It is not thread-safe : the owning ChainIndex is responsible for the synchronization. Only the counters can be read concurrently.
+ */
+final class BloomFilter {
+
+    /**
+     * The number of blocks covered by the first segment.
+     */
+    static final int FIRST_SEGMENT_SIZE = 1 << 16;
+
+    /**
+     * The maximum number of blocks covered by a segment.
+     */
+    static final int MAX_SEGMENT_SIZE = 1 << 26;
+
+    /**
+     * The ratio between the false positive rates of two consecutive segments.
+     */
+    private static final double TIGHTENING_RATIO = 0.8;
+
+    private final double falsePositiveRate;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private final LongAdder queries = new LongAdder();
+
+    private final LongAdder negatives = new LongAdder();
+
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Create an empty filter.
+     *
+     * @param falsePositiveRate
+     *            the expected false positive rate of the filter, between 0 and 1 exclusive
+     */
+    BloomFilter(double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1 : " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Add the key of the block at the specified position.
+     *
+     * @param position
+     *            the position of the block
+     * @param hashCode
+     *            the hash code of the key to add
+     */
+    void add(long position, int hashCode) {
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || last.count == last.capacity) {
+            int capacity = FIRST_SEGMENT_SIZE;
+            if (last != null) {
+                last.frozen = true;
+                capacity = Math.min(last.capacity * 2, MAX_SEGMENT_SIZE);
+            }
+            double rate = falsePositiveRate * (1 - TIGHTENING_RATIO) * Math.pow(TIGHTENING_RATIO, segments.size());
+            last = new Segment(capacity, rate);
+            segments.add(last);
+        }
+        last.put(position, hashCode);
+    }
+
+    /**
+     * Add the keys of consecutive blocks.
+     *
+     * @param firstPosition
+     *            the position of the first block
+     * @param hashCodes
+     *            the hash codes of the keys of the blocks, in the order of the positions
+     */
+    void addAll(long firstPosition, int[] hashCodes) {
+        for (int i = 0; i < hashCodes.length; i++) {
+            add(firstPosition + i, hashCodes[i]);
+        }
+    }
+
+    /**
+     * Check if a key might have been added at a position lower or equal to the limit.
+     *
+     * @param key
+     *            the key to check
+     * @param limit
+     *            the highest position to consider, inclusive
+     * @return false if the key has definitely not been added, true if it might have been.
+     */
+    boolean mightContain(Object key, long limit) {
+        for (Segment segment : segments) {
+            if (segment.start <= limit && segment.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record the result of a lookup which has been checked against the filter.
+     *
+     * @param filtered
+     *            true if the filter answered the lookup alone
+     * @param found
+     *            true if the key has been found in the chain
+     */
+    void record(boolean filtered, boolean found) {
+        queries.increment();
+        if (filtered) {
+            negatives.increment();
+        } else if (!found) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Return a snapshot of the counters of the filter.
+     *
+     * @return a snapshot of the counters of the filter.
+     */
+    BloomFilterStats getStats() {
+        return new BloomFilterStats(queries.sum(), negatives.sum(), falsePositives.sum(), segments.size());
+    }
+
+    private static final class Segment {
+
+        private long start = Long.MAX_VALUE;
+
+        private final int capacity;
+
+        private final BitSet bits;
+
+        private final int size;
+
+        private final int hashes;
+
+        private int count;
+
+        private boolean frozen;
+
+        private Segment(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            double log2 = Math.log(2);
+            size = (int) Math.min(Integer.MAX_VALUE - Long.SIZE, Math.ceil(-capacity * Math.log(falsePositiveRate) / (log2 * log2)));
+            hashes = Math.max(1, (int) Math.round((double) size / capacity * log2));
+            bits = new BitSet(size);
+        }
+
+        private void put(long position, int hashCode) {
+            if (frozen) {
+                throw new IllegalStateException("The segment starting at " + start + " is frozen");
+            }
+            start = Math.min(start, position);
+            count++;
+            long hash = mix(hashCode);
+            int first = (int) hash;
+            int second = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                bits.set(Math.floorMod(first + i * second, size));
+            }
+        }
+
+        private boolean mightContain(Object key) {
+            long hash = mix(Objects.hashCode(key));
+            int first = (int) hash;
+            int second = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                if (!bits.get(Math.floorMod(first + i * second, size))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Spread the bits of a hash code over 64 bits, using the finalizer of MurmurHash3.
+         */
+        private static long mix(int hashCode) {
+            long hash = hashCode;
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.mathiewz.blockchain;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A snapshot of the counters of the Bloom filter of a chain.
+ */
+public final class BloomFilterStats {
+
+    private final long queries;
+
+    private final long negatives;
+
+    private final long falsePositives;
+
+    private final int segments;
+
+    BloomFilterStats(long queries, long negatives, long falsePositives, int segments) {
+        this.queries = queries;
+        this.negatives = negatives;
+        this.falsePositives = falsePositives;
+        this.segments = segments;
+    }
+
+    /**
+     * Return the number of lookups checked against the filter.
+     *
+     * @return the number of lookups checked against the filter.
+     */
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * Return the number of lookups answered by the filter alone, without touching the blocks.
+     *
+     * @return the number of lookups answered by the filter alone.
+     */
+    public long getNegatives() {
+        return negatives;
+    }
+
+    /**
+     * Return the number of lookups the filter could not answer, and whose data was not in the chain.
+     *
+     * @return the number of false positives of the filter.
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * Return the number of segments of the filter. All of them but the last one are frozen.
+     *
+     * @return the number of segments of the filter.
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Return the ratio of lookups answered by the filter alone.
+     *
+     * @return the ratio of lookups answered by the filter alone, or 0 if no lookup has been done.
+     */
+    public double getHitRate() {
+        return queries == 0 ? 0 : (double) negatives / queries;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("queries", queries)
+                .append("negatives", negatives)
+                .append("falsePositives", falsePositives)
+                .append("segments", segments)
+                .append("hitRate", getHitRate())
+                .build();
+    }
+}
@@ -0,0 +1,388 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * An append-only index of the blocks of a chain, addressed by their position.
+ * The blocks are stored in fixed-size chunks, so appending a block never copies the blocks already indexed.
+ * <p>
+ * An index is shared by all the blocks of a branch of the chain. When a block is appended to a block which is not the last one of its index
+ * (i.e. the chain forks), a new index is created for the fork. It shares the full chunks of the index it has been forked from
+ * and only copies the chunk containing the fork point, so any block is still reached in constant time,
+ * and the branches are independent : a branch which is no longer referenced can be garbage collected.
+ * <p>
+ * The data of the blocks is indexed on the first lookup, see {@link #indexOfData(Object, long)}, and the data can also be indexed
+ * by the keys registered with {@link #addKeyIndex(Function)}. These indexes are shared by all the branches of the chain :
+ * each branch adds its blocks to an index when it is first used on this branch, then as the blocks are appended.
+ * They only keep the hash codes of the data and of the keys, so the data stays where the blocks keep it,
+ * and the positions they return are checked against the blocks of the branch.
+ * An optional {@link BloomFilter} over the data is checked before the data index : it answers most negative lookups alone,
+ * without reading the data index, and the other ones are answered by the data index.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+final class ChainIndex<T extends Serializable> {
+
+    private static final int CHUNK_SHIFT = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The maximum number of key indexes registered on a chain.
+     */
+    static final int MAX_KEY_INDEXES = 8;
+
+    private final Indexes<T> indexes;
+
+    private volatile Object[][] chunks;
+
+    private long size;
+
+    private final Set<Object> covered = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ChainIndex(Indexes<T> indexes, Object[][] chunks, long size) {
+        this.indexes = indexes;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Create the index of a new chain starting with the specified block.
+     *
+     * @param <T>
+     *            The class of the data contained in the blocks.
+     * @param firstBlock
+     *            the first block of the chain
+     * @return the index of the new chain
+     */
+    static <T extends Serializable> ChainIndex<T> create(Block<T> firstBlock) {
+        ChainIndex<T> chainIndex = new ChainIndex<>(new Indexes<>(), new Object[1][], 0);
+        synchronized (chainIndex.indexes) {
+            chainIndex.append(firstBlock);
+        }
+        return chainIndex;
+    }
+
+    /**
+     * Index a block appended to a block of this index.
+     * The block is added to this index if its previous block is the last one of the index, otherwise a new index is forked.
+     *
+     * @param block
+     *            the new block, whose previous block belongs to this index
+     * @return the index containing the new block
+     */
+    ChainIndex<T> extend(Block<T> block) {
+        synchronized (indexes) {
+            long position = block.getIndex();
+            if (position == size) {
+                append(block);
+                return this;
+            }
+            int chunk = (int) (position >>> CHUNK_SHIFT);
+            int offset = (int) (position & CHUNK_MASK);
+            Object[][] shared = Arrays.copyOf(chunks, chunks.length);
+            Arrays.fill(shared, chunk, shared.length, null);
+            if (offset > 0) {
+                shared[chunk] = new Object[CHUNK_SIZE];
+                System.arraycopy(chunks[chunk], 0, shared[chunk], 0, offset);
+            }
+            ChainIndex<T> fork = new ChainIndex<>(indexes, shared, position);
+            fork.covered.addAll(covered);
+            fork.append(block);
+            return fork;
+        }
+    }
+
+    private void append(Block<T> block) {
+        int chunk = (int) (size >>> CHUNK_SHIFT);
+        Object[][] current = chunks;
+        if (chunk >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][(int) (size & CHUNK_MASK)] = block;
+        chunks = current;
+        if (!covered.isEmpty()) {
+            T data = block.getData();
+            for (Map.Entry<Function<? super T, ?>, KeyIndex> keyIndex : indexes.keyIndexes.entrySet()) {
+                if (covered.contains(keyIndex.getValue())) {
+                    keyIndex.getValue().add(size, Objects.hashCode(keyIndex.getKey().apply(data)));
+                }
+            }
+            if (covered.contains(indexes.dataIndex)) {
+                indexes.dataIndex.add(size, Objects.hashCode(data));
+            }
+            if (covered.contains(indexes.bloomFilter)) {
+                indexes.bloomFilter.add(size, Objects.hashCode(data));
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Return the block at the specified position.
+     * The caller must ensure that the position is lower or equal than the position of a block of this index.
+     *
+     * @param position
+     *            the position of the block
+     * @return the block at the specified position
+     */
+    @SuppressWarnings("unchecked")
+    Block<T> get(long position) {
+        return (Block<T>) chunks[(int) (position >>> CHUNK_SHIFT)][(int) (position & CHUNK_MASK)];
+    }
+
+    /**
+     * Return the lowest position of a block containing the specified data.
+     * The data index is built on first call, outside of the lock of the index, since the data of the blocks may have to be read from a store.
+     * The candidates it returns are checked against the data of the blocks outside of the lock too.
+     * If the Bloom filter is enabled, it is checked first, and the data index is only used if the filter can not exclude the data.
+     *
+     * @param data
+     *            the data to look for
+     * @param limit
+     *            the highest position to consider, inclusive
+     * @return the lowest position of a block containing the data, or -1 if there is none.
+     */
+    long indexOfData(Object data, long limit) {
+        BloomFilter filter = getBloomFilter();
+        if (filter != null && !mightContain(filter, data, limit)) {
+            filter.record(true, false);
+            return -1;
+        }
+        long position = -1;
+        for (long candidate : collectData(data, limit)) {
+            if (Objects.equals(get(candidate).getData(), data)) {
+                position = candidate;
+                break;
+            }
+        }
+        if (filter != null) {
+            filter.record(false, position >= 0);
+        }
+        return position;
+    }
+
+    private BloomFilter getBloomFilter() {
+        synchronized (indexes) {
+            return indexes.bloomFilter;
+        }
+    }
+
+    private List<Long> collectData(Object data, long limit) {
+        KeyIndex dataIndex;
+        synchronized (indexes) {
+            if (indexes.dataIndex == null) {
+                indexes.dataIndex = new KeyIndex();
+            }
+            dataIndex = indexes.dataIndex;
+        }
+        cover(dataIndex, Function.identity(), dataIndex::addAll);
+        List<Long> result = new ArrayList<>();
+        synchronized (indexes) {
+            dataIndex.collect(Objects.hashCode(data), limit, result);
+        }
+        return sorted(result);
+    }
+
+    private boolean mightContain(BloomFilter filter, Object data, long limit) {
+        cover(filter, Function.identity(), filter::addAll);
+        synchronized (indexes) {
+            return filter.mightContain(data, limit);
+        }
+    }
+
+    /**
+     * Enable the Bloom filter of the chain, checked before its data index.
+     * The filter is filled with the blocks of this branch outside of the lock of the index, then maintained as the blocks are appended.
+     * The other branches add their blocks to the filter on their first lookup.
+     * Nothing is done if the filter is already enabled.
+     *
+     * @param falsePositiveRate
+     *            the expected false positive rate of the filter, between 0 and 1 exclusive
+     */
+    void enableBloomFilter(double falsePositiveRate) {
+        BloomFilter filter;
+        synchronized (indexes) {
+            if (indexes.bloomFilter == null) {
+                indexes.bloomFilter = new BloomFilter(falsePositiveRate);
+            }
+            filter = indexes.bloomFilter;
+        }
+        cover(filter, Function.identity(), filter::addAll);
+    }
+
+    /**
+     * Return the counters of the Bloom filter of the chain.
+     *
+     * @return the counters of the Bloom filter, or null if it is not enabled.
+     */
+    BloomFilterStats getBloomFilterStats() {
+        BloomFilter filter = getBloomFilter();
+        return filter == null ? null : filter.getStats();
+    }
+
+    /**
+     * Index the data of the chain by a key.
+     * The key index is filled with the blocks of this branch outside of the lock of the index, then maintained as the blocks are appended,
+     * and it is inherited by the indexes forked from this one. The other branches add their blocks to the key index on their first lookup.
+     * Nothing is done on the branches where the key is already indexed.
+     *
+     * @param keyExtractor
+     *            the function extracting the key from the data. The same instance must be used to look up the blocks.
+     * @throws IllegalStateException
+     *             If {@link #MAX_KEY_INDEXES} key indexes are already registered.
+     */
+    void addKeyIndex(Function<? super T, ?> keyExtractor) {
+        KeyIndex keyIndex;
+        synchronized (indexes) {
+            keyIndex = indexes.keyIndexes.get(keyExtractor);
+            if (keyIndex == null) {
+                if (indexes.keyIndexes.size() >= MAX_KEY_INDEXES) {
+                    throw new IllegalStateException("At most " + MAX_KEY_INDEXES + " key indexes can be registered on a chain");
+                }
+                keyIndex = new KeyIndex();
+                indexes.keyIndexes.put(keyExtractor, keyIndex);
+            }
+        }
+        cover(keyIndex, keyExtractor, keyIndex::addAll);
+    }
+
+    /**
+     * Drop a key index from the chain.
+     *
+     * @param keyExtractor
+     *            the function given to {@link #addKeyIndex(Function)}
+     */
+    void removeKeyIndex(Function<? super T, ?> keyExtractor) {
+        synchronized (indexes) {
+            covered.remove(indexes.keyIndexes.remove(keyExtractor));
+        }
+    }
+
+    /**
+     * Check if the data of the chain is indexed by a key.
+     *
+     * @param keyExtractor
+     *            the function given to {@link #addKeyIndex(Function)}
+     * @return true if the positions of all the blocks can be looked up by this key
+     */
+    boolean hasKeyIndex(Function<? super T, ?> keyExtractor) {
+        synchronized (indexes) {
+            return indexes.keyIndexes.containsKey(keyExtractor);
+        }
+    }
+
+    /**
+     * Return all the positions of the blocks whose data has the specified key, sorted in ascending order.
+     * The key must be indexed, see {@link #hasKeyIndex(Function)}. The candidates returned by the key index
+     * are checked against the data of the blocks outside of the lock of the index.
+     *
+     * @param keyExtractor
+     *            the function given to {@link #addKeyIndex(Function)}
+     * @param key
+     *            the key to look for
+     * @param limit
+     *            the highest position to consider, inclusive
+     * @return the positions of the blocks with the specified key.
+     */
+    List<Long> findAll(Function<? super T, ?> keyExtractor, Object key, long limit) {
+        KeyIndex keyIndex;
+        synchronized (indexes) {
+            keyIndex = indexes.keyIndexes.get(keyExtractor);
+        }
+        cover(keyIndex, keyExtractor, keyIndex::addAll);
+        List<Long> candidates = new ArrayList<>();
+        synchronized (indexes) {
+            keyIndex.collect(Objects.hashCode(key), limit, candidates);
+        }
+        List<Long> result = new ArrayList<>(candidates.size());
+        for (long candidate : sorted(candidates)) {
+            if (Objects.equals(keyExtractor.apply(get(candidate).getData()), key)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the blocks of this branch to an index, if they have not been added yet.
+     * The keys of the blocks are computed outside of the lock of the index, since the data of the blocks may have to be read from a store,
+     * then they are published under the lock with the keys of the blocks appended in the meantime.
+     * The blocks this branch shares with the branches already covered by the index are added again,
+     * the duplicated positions are dropped by the lookups.
+     *
+     * @param index
+     *            the key index or the Bloom filter
+     * @param keyExtractor
+     *            the function extracting the key from the data of a block
+     * @param publisher
+     *            the function adding to the index the hash codes of the keys of consecutive blocks, from the position of the first one
+     */
+    private void cover(Object index, Function<? super T, ?> keyExtractor, BiConsumer<Long, int[]> publisher) {
+        long end;
+        synchronized (indexes) {
+            if (covered.contains(index)) {
+                return;
+            }
+            end = size;
+        }
+        int[] hashCodes = hashCodes(keyExtractor, 0, end);
+        synchronized (indexes) {
+            if (covered.add(index)) {
+                publisher.accept(0L, hashCodes);
+                publisher.accept(end, hashCodes(keyExtractor, end, size));
+            }
+        }
+    }
+
+    private int[] hashCodes(Function<? super T, ?> keyExtractor, long from, long to) {
+        int[] hashCodes = new int[Math.toIntExact(to - from)];
+        for (int i = 0; i < hashCodes.length; i++) {
+            hashCodes[i] = Objects.hashCode(keyExtractor.apply(get(from + i).getData()));
+        }
+        return hashCodes;
+    }
+
+    /**
+     * Sort the candidates returned by an index, and drop the duplicates added by the branches sharing the same blocks.
+     */
+    private static List<Long> sorted(List<Long> candidates) {
+        Collections.sort(candidates);
+        List<Long> result = new ArrayList<>(candidates.size());
+        for (Long candidate : candidates) {
+            if (result.isEmpty() || !result.get(result.size() - 1).equals(candidate)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The indexes over the data shared by all the branches of a chain. The branches synchronize on it.
+     */
+    private static final class Indexes<T> {
+
+        private final Map<Function<? super T, ?>, KeyIndex> keyIndexes = new HashMap<>();
+
+        private KeyIndex dataIndex;
+
+        private BloomFilter bloomFilter;
+    }
+}
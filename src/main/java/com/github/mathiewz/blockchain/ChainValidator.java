@@ -0,0 +1,124 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.util.stream.StreamSupport;
+
+/**
+ * Validate a whole blockchain in a single pass.
+ * Each block is checked against its own data and the hash stored in its previous block,
+ * so the validation of a chain of n blocks costs O(n).
+ * The blocks being independent of each other, the validation can be spread over the common ForkJoinPool.
+ * <p>
+ * The result is memoized in each validated block, so only the blocks appended after the latest validated ancestor
+ * are checked by the next validations.
+ */
+public final class ChainValidator {
+
+    private ChainValidator() {
+        // Utility class
+    }
+
+    /**
+     * Validate the chain ending with the specified block.
+     * Only the blocks appended after the latest validated ancestor are checked.
+     *
+     * @param <T>
+     *            the class of the data contained in the chain
+     * @param tip
+     *            the last block of the chain to validate
+     * @param parallel
+     *            true to validate the blocks in parallel
+     * @return the result of the validation
+     */
+    public static <T extends Serializable> ValidationResult validate(Block<T> tip, boolean parallel) {
+        long start = System.nanoTime();
+        Block<T> validated = getLatestValidatedAncestor(tip);
+        if (validated != null && validated.getValidity() == Validity.INVALID) {
+            markInvalid(tip, validated.getIndex() + 1);
+            return new ValidationResult(getFirstInvalidIndex(validated), 0, System.nanoTime() - start);
+        }
+        long from = validated == null ? 0 : validated.getIndex() + 1;
+        long firstInvalidIndex = parallel ? checkParallel(tip, from) : check(tip, from);
+        if (firstInvalidIndex == ValidationResult.NO_INVALID_INDEX) {
+            markValid(tip, from, tip.getIndex() + 1);
+        } else {
+            markValid(tip, from, firstInvalidIndex);
+            markInvalid(tip, firstInvalidIndex);
+        }
+        return new ValidationResult(firstInvalidIndex, tip.getIndex() + 1 - from, System.nanoTime() - start);
+    }
+
+    /**
+     * Return the latest block of the chain whose validity is already known.
+     *
+     * @param tip
+     *            the last block of the chain
+     * @return the latest block of the chain whose validity is already known, or null if no block has been validated.
+     */
+    private static <T extends Serializable> Block<T> getLatestValidatedAncestor(Block<T> tip) {
+        Block<T> block = tip;
+        while (block != null && block.getValidity() == Validity.UNKNOWN) {
+            block = block.getPrevious();
+        }
+        return block;
+    }
+
+    private static <T extends Serializable> long getFirstInvalidIndex(Block<T> invalid) {
+        Block<T> block = invalid;
+        while (block.getPrevious() != null && block.getPrevious().getValidity() == Validity.INVALID) {
+            block = block.getPrevious();
+        }
+        return block.getIndex();
+    }
+
+    private static <T extends Serializable> long check(Block<T> tip, long from) {
+        long firstInvalidIndex = ValidationResult.NO_INVALID_INDEX;
+        Block<T> block = tip;
+        while (block != null && block.getIndex() >= from) {
+            if (!isLinked(block) || !block.isValid()) {
+                firstInvalidIndex = block.getIndex();
+            }
+            block = block.getPrevious();
+        }
+        return firstInvalidIndex;
+    }
+
+    private static <T extends Serializable> long checkParallel(Block<T> tip, long from) {
+        return StreamSupport.stream(tip.spliterator(from), true)
+                .filter(block -> !isLinked(block) || !block.isValid())
+                .mapToLong(Block::getIndex)
+                .min()
+                .orElse(ValidationResult.NO_INVALID_INDEX);
+    }
+
+    /**
+     * Memoize the validity of a range of blocks, from the oldest to the latest,
+     * so a block is never seen as valid before its ancestors.
+     */
+    private static <T extends Serializable> void markValid(Block<T> tip, long from, long to) {
+        for (long index = from; index < to; index++) {
+            tip.get(index).setValidity(Validity.VALID);
+        }
+    }
+
+    private static <T extends Serializable> void markInvalid(Block<T> tip, long from) {
+        for (long index = from; index <= tip.getIndex(); index++) {
+            tip.get(index).setValidity(Validity.INVALID);
+        }
+    }
+
+    /**
+     * Check that a block is correctly linked to its previous block.
+     *
+     * @param block
+     *            the block to check
+     * @return true if the index of the block follows the index of the previous block
+     */
+    private static <T extends Serializable> boolean isLinked(Block<T> block) {
+        Block<T> previous = block.getPrevious();
+        if (previous == null) {
+            return block.getIndex() == 0;
+        }
+        return previous.getIndex() == block.getIndex() - 1;
+    }
+}
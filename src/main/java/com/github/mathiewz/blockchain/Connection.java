@@ -0,0 +1,303 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection to another node, provided by a {@link Transport}.
+ * <p>
+ * The messages received are handled in order on the executor of the transport, not by the thread reading the connection.
+ * They are given to the handler of the transport, unless an inbox is opened on the connection for their command :
+ * they are then kept to be read by {@link #take()}, to wait for the answers of a request.
+ * <p>
+ * The bytes received and not handled yet are bounded : the transport stops reading the connection once they exceed {@link #MAX_BACKLOG},
+ * until they are handled.
+ */
+abstract class Connection {
+
+    /**
+     * The number of bytes received and not handled yet above which the connection is not read anymore.
+     */
+    static final int MAX_BACKLOG = 16 * 1024 * 1024;
+
+    /**
+     * The number of bytes waiting to be written above which the remote node is considered as not reading its messages.
+     */
+    static final int MAX_PENDING = 64 * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Connection.class);
+
+    private volatile BlockingQueue<Message> inbox;
+
+    private volatile List<String> inboxCommands;
+
+    private final Queue<Message> received = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean handling = new AtomicBoolean();
+
+    private final AtomicLong backlog = new AtomicLong();
+
+    private volatile PayloadStream incomingPayload;
+
+    /**
+     * Send frames built by {@link Message#encode(String, Message.Encoder)}.
+     * The frames are not modified, so they can be sent to several connections.
+     *
+     * @param frames
+     *            the frames to send
+     * @throws IOException
+     *             If the frames can not be sent, or if the remote node does not read the messages already sent.
+     */
+    abstract void send(ByteBuffer frames) throws IOException;
+
+    /**
+     * Send a message whose payload is written to the connection while it is encoded, in frames of {@link Message#CHUNK_SIZE} bytes,
+     * so a large payload is never held in memory.
+     * The encoding waits for the remote node to read the beginning of the payload.
+     *
+     * @param header
+     *            the header of the message
+     * @param payload
+     *            the encoder of the payload
+     * @throws IOException
+     *             If the message can not be sent. The connection is then closed, as the remote node may have received a part of it.
+     */
+    abstract void send(String header, Message.Encoder payload) throws IOException;
+
+    /**
+     * Read the connection again after {@link #isBacklogged()} returned true, once the backlog has been handled.
+     */
+    abstract void resumeReading();
+
+    /**
+     * Check if the connection is closed.
+     *
+     * @return true if the connection is closed
+     */
+    abstract boolean isClosed();
+
+    /**
+     * Close the connection, ignoring the errors.
+     */
+    abstract void close();
+
+    /**
+     * Return the address of the remote node.
+     *
+     * @return the address of the remote node.
+     */
+    abstract SocketAddress getRemoteAddress();
+
+    /**
+     * Send a message without payload.
+     *
+     * @param header
+     *            the header of the message
+     * @throws IOException
+     *             If the message can not be sent.
+     */
+    void send(String header) throws IOException {
+        send(Message.encode(header));
+    }
+
+    /**
+     * Encode a message into frames given to a sink as they are filled, closing the connection if the message can not be encoded.
+     *
+     * @param header
+     *            the header of the message
+     * @param payload
+     *            the encoder of the payload
+     * @param sink
+     *            the sink writing the frames to the connection
+     * @throws IOException
+     *             If the message can not be encoded or written.
+     */
+    void stream(String header, Message.Encoder payload, Message.FrameSink sink) throws IOException {
+        try {
+            Message.FrameOutputStream out = new Message.FrameOutputStream(header, sink);
+            payload.encode(out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Handle a frame read from the connection, from the thread reading it.
+     * The first frame of a message is parsed, then the message is handled on the executor after the messages received before,
+     * while the next frames of the message are added to its payload, read by the handler as they are received.
+     *
+     * @param content
+     *            the content of the frame, without its length
+     * @param continued
+     *            true if the message goes on in the next frame
+     * @param handler
+     *            the handler of the messages
+     * @param executor
+     *            the executor handling the messages
+     * @throws IOException
+     *             If the frame is not a valid message.
+     */
+    void received(byte[] content, boolean continued, Transport.Handler handler, Executor executor) throws IOException {
+        backlog.addAndGet(content.length);
+        PayloadStream payload = incomingPayload;
+        if (payload != null) {
+            payload.add(content);
+            if (!continued) {
+                incomingPayload = null;
+                payload.end();
+            }
+            return;
+        }
+        payload = continued ? new PayloadStream(this) : null;
+        Message message = Message.parse(content, payload);
+        incomingPayload = payload;
+        if (payload != null && isClosed()) {
+            payload.fail();
+        }
+        received.add(message);
+        handleReceived(handler, executor);
+    }
+
+    /**
+     * Start a task handling the messages received, unless one is already running.
+     */
+    private void handleReceived(Transport.Handler handler, Executor executor) {
+        if (received.isEmpty() || !handling.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Message message;
+                while ((message = received.poll()) != null) {
+                    try {
+                        handler.received(this, message);
+                    } finally {
+                        release(message.getFrameLength());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+                close();
+            } finally {
+                handling.set(false);
+            }
+            // A message may have been received after the last poll
+            handleReceived(handler, executor);
+        });
+    }
+
+    /**
+     * Check if the bytes received and not handled yet exceed {@link #MAX_BACKLOG}, so the connection must not be read anymore.
+     *
+     * @return true if the connection must not be read until {@link #resumeReading()} is called
+     */
+    boolean isBacklogged() {
+        return backlog.get() >= MAX_BACKLOG;
+    }
+
+    /**
+     * Remove bytes handled from the backlog, reading the connection again if it falls below {@link #MAX_BACKLOG}.
+     *
+     * @param length
+     *            the number of bytes handled
+     */
+    void release(int length) {
+        long remaining = backlog.addAndGet(-length);
+        if (remaining < MAX_BACKLOG && remaining + length >= MAX_BACKLOG) {
+            resumeReading();
+        }
+    }
+
+    /**
+     * Keep the messages with the specified commands received from now on, to be read by {@link #take()}.
+     * The other messages are still given to the handler of the transport.
+     *
+     * @param commands
+     *            the commands of the answers to wait for
+     */
+    void openInbox(String... commands) {
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        inboxCommands = Arrays.asList(commands);
+        inbox = queue;
+        if (isClosed()) {
+            queue.add(Message.CLOSED);
+        }
+    }
+
+    /**
+     * Give the messages received to the handler of the transport again. The messages kept and not read are discarded.
+     */
+    void closeInbox() {
+        BlockingQueue<Message> queue = inbox;
+        inbox = null;
+        if (queue != null) {
+            Message message;
+            while ((message = queue.poll()) != null) {
+                message.close();
+            }
+        }
+    }
+
+    /**
+     * Keep a message received if the inbox is opened for its command.
+     *
+     * @param message
+     *            the message received
+     * @return true if the message has been kept, false if it must be handled
+     */
+    boolean offer(Message message) {
+        BlockingQueue<Message> queue = inbox;
+        return queue != null && (message == Message.CLOSED || inboxCommands.contains(message.getCommand())) && queue.offer(message);
+    }
+
+    /**
+     * Wait for the next message kept in the inbox.
+     * The message must be closed once read, see {@link Message#close()}.
+     *
+     * @return the next message, or null if the connection has been closed
+     * @throws IOException
+     *             If the thread is interrupted.
+     */
+    Message take() throws IOException {
+        try {
+            Message message = inbox.take();
+            return message == Message.CLOSED ? null : message;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message");
+        }
+    }
+
+    /**
+     * Wake up the threads waiting for a message once the connection is closed.
+     */
+    protected void closed() {
+        received.clear();
+        PayloadStream payload = incomingPayload;
+        if (payload != null) {
+            payload.fail();
+        }
+        offer(Message.CLOSED);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(getRemoteAddress());
+    }
+}
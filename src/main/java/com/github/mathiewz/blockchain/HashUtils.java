@@ -0,0 +1,208 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * Helpers used to compute and display the digests of the blocks.
+ */
+final class HashUtils {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int SHORT_HEX_BYTES = 8;
+
+    private static final byte MERKLE_LEAF = 0;
+
+    private static final byte MERKLE_NODE = 1;
+
+    private static final byte MERKLE_ROOT = 2;
+
+    private HashUtils() {
+        // Utility class
+    }
+
+    /**
+     * Return a new MessageDigest for the specified algorithm.
+     *
+     * @param algorithm
+     *            the name of the algorithm, as accepted by {@link MessageDigest#getInstance(String)}
+     * @return a new MessageDigest
+     * @throws IllegalArgumentException
+     *             if the algorithm is not available
+     */
+    static MessageDigest newMessageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm " + algorithm, e);
+        }
+    }
+
+    /**
+     * Compute the digest of a block over the canonical binary encoding of its content :
+     * the index, the length-prefixed digest of the previous block and the length-prefixed serialized data,
+     * or the length-prefixed Merkle root of the items if the data is a {@link Batch}.
+     *
+     * @param algorithm
+     *            the digest algorithm
+     * @param index
+     *            the index of the block
+     * @param previousHash
+     *            the digest of the previous block, or null for the first block
+     * @param data
+     *            the data of the block
+     * @return the digest of the block
+     */
+    static byte[] digest(String algorithm, long index, byte[] previousHash, Serializable data) {
+        return digest(algorithm, index, previousHash, data instanceof Batch ? ((Batch<?>) data).computeRoot() : SerializationUtils.serialize(data));
+    }
+
+    /**
+     * Compute the digest of a block from its encoded payload, see {@link #digest(String, long, byte[], Serializable)}.
+     *
+     * @param algorithm
+     *            the digest algorithm
+     * @param index
+     *            the index of the block
+     * @param previousHash
+     *            the digest of the previous block, or null for the first block
+     * @param payload
+     *            the serialized data of the block, or the Merkle root of its items
+     * @return the digest of the block
+     */
+    static byte[] digest(String algorithm, long index, byte[] previousHash, byte[] payload) {
+        byte[] previous = previousHash == null ? new byte[0] : previousHash;
+        MessageDigest messageDigest = newMessageDigest(algorithm);
+        messageDigest.update(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(index).putInt(previous.length).array());
+        messageDigest.update(previous);
+        messageDigest.update(ByteBuffer.allocate(Integer.BYTES).putInt(payload.length).array());
+        messageDigest.update(payload);
+        return messageDigest.digest();
+    }
+
+    /**
+     * Compute the digest of a leaf of a Merkle tree, over a prefix distinguishing the leaves from the nodes and the serialized item.
+     *
+     * @param messageDigest
+     *            the digest to use, which is reset
+     * @param item
+     *            the item of the leaf
+     * @return the digest of the leaf
+     */
+    static byte[] merkleLeaf(MessageDigest messageDigest, Serializable item) {
+        messageDigest.update(MERKLE_LEAF);
+        messageDigest.update(SerializationUtils.serialize(item));
+        return messageDigest.digest();
+    }
+
+    /**
+     * Compute the digest of a node of a Merkle tree, over a prefix distinguishing the nodes from the leaves and the digests of its children.
+     *
+     * @param messageDigest
+     *            the digest to use, which is reset
+     * @param left
+     *            the digest of the left child
+     * @param right
+     *            the digest of the right child
+     * @return the digest of the node
+     */
+    static byte[] merkleNode(MessageDigest messageDigest, byte[] left, byte[] right) {
+        messageDigest.update(MERKLE_NODE);
+        messageDigest.update(left);
+        messageDigest.update(right);
+        return messageDigest.digest();
+    }
+
+    /**
+     * Compute the root committed by a Merkle tree, over a prefix, the number of leaves and the top node of the tree,
+     * so a proof can not claim its leaf is at another position of a tree of another size.
+     *
+     * @param messageDigest
+     *            the digest to use, which is reset
+     * @param count
+     *            the number of leaves of the tree
+     * @param top
+     *            the digest of the top node of the tree
+     * @return the root of the tree
+     */
+    static byte[] merkleRoot(MessageDigest messageDigest, int count, byte[] top) {
+        messageDigest.update(MERKLE_ROOT);
+        messageDigest.update(ByteBuffer.allocate(Integer.BYTES).putInt(count).array());
+        messageDigest.update(top);
+        return messageDigest.digest();
+    }
+
+    /**
+     * Return a copy of the remaining content of a buffer.
+     *
+     * @param buffer
+     *            the buffer, whose position is not modified
+     * @return the remaining content of the buffer
+     */
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Return the hexadecimal representation of a digest.
+     *
+     * @param bytes
+     *            the digest
+     * @return the hexadecimal representation of the digest
+     */
+    static String toHex(byte[] bytes) {
+        return toHex(bytes, bytes.length);
+    }
+
+    /**
+     * Return the hexadecimal representation of the first bytes of a digest, used to identify a block in the logs.
+     *
+     * @param bytes
+     *            the digest
+     * @return the hexadecimal representation of the first bytes of the digest
+     */
+    static String toShortHex(byte[] bytes) {
+        return toHex(bytes, Math.min(bytes.length, SHORT_HEX_BYTES));
+    }
+
+    /**
+     * Return the digest represented by a hexadecimal string.
+     *
+     * @param hex
+     *            the hexadecimal representation of the digest
+     * @return the digest
+     * @throws IllegalArgumentException
+     *             if the string is not a valid hexadecimal representation
+     */
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hexadecimal digest " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hexadecimal digest " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,327 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The initial synchronization of a node joining the network, downloading the headers of the chain first.
+ * <p>
+ * The headers, i.e. the digests of the blocks and the Merkle roots of their batches, are downloaded from the first connected node.
+ * The answers of the nodes are read from the inbox of their connections, opened during the synchronization for the answers only,
+ * so the other messages, like the new blocks sent by the nodes, are still handled by the node.
+ * The blocks are then downloaded by ranges, in parallel from all the connected nodes.
+ * Each range is chained to the header preceding it, so the digests of its blocks are computed again and checked against the headers
+ * without waiting for the previous ranges. A node which can not send a range is no longer used, and the range is downloaded from another node.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+final class HeadersFirstSync<T extends Serializable> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeadersFirstSync.class);
+
+    /**
+     * The message asking for the headers of the whole chain.
+     */
+    static final String HEADERS = "headers";
+
+    /**
+     * The message containing the headers of a chain.
+     */
+    static final String HEADER_RANGE = "headerrange";
+
+    /**
+     * The message asking for the blocks between two indexes.
+     */
+    static final String BODIES = "bodies";
+
+    /**
+     * The answer to {@link #BODIES}, with the same indexes, containing the blocks or nothing if the node has not these blocks.
+     */
+    static final String BODY_RANGE = "bodyrange";
+
+    private static final byte VERSION = 2;
+
+    private static final long POLL_MILLIS = 50;
+
+    private final BlockCodec<T> codec;
+
+    private final Executor executor;
+
+    private final int rangeSize;
+
+    private final Consumer<SyncProgress> listener;
+
+    private final long start = System.nanoTime();
+
+    private final AtomicLong downloadedBlocks = new AtomicLong();
+
+    private final AtomicInteger peers = new AtomicInteger();
+
+    private volatile long headers;
+
+    HeadersFirstSync(BlockCodec<T> codec, Executor executor, int rangeSize, Consumer<SyncProgress> listener) {
+        this.codec = codec;
+        this.executor = executor;
+        this.rangeSize = rangeSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Download the chain from the connected nodes.
+     *
+     * @param connections
+     *            the connections to the nodes, the headers being downloaded from the first one
+     * @return the last block of the downloaded chain
+     * @throws IOException
+     *             If the headers can not be downloaded, or if some blocks can not be downloaded from any node.
+     */
+    Block<T> run(List<Connection> connections) throws IOException {
+        for (Connection connection : connections) {
+            connection.openInbox(HEADER_RANGE, BODY_RANGE);
+        }
+        try {
+            return download(connections);
+        } finally {
+            for (Connection connection : connections) {
+                connection.closeInbox();
+            }
+        }
+    }
+
+    private Block<T> download(List<Connection> connections) throws IOException {
+        connections.get(0).send(HEADERS);
+        Message message = readMessage(connections.get(0), HEADER_RANGE);
+        if (message == null) {
+            throw new IOException("The remote node did not send the headers of its chain");
+        }
+        Block<T> headerChain;
+        try {
+            headerChain = decodeHeaders(message.getPayload());
+        } finally {
+            message.close();
+        }
+        headers = headerChain.getIndex() + 1;
+        LOGGER.info("Received {} headers, downloading the blocks from {} nodes", headers, connections.size());
+        report();
+
+        BlockingDeque<long[]> ranges = new LinkedBlockingDeque<>();
+        for (long from = 0; from < headers; from += rangeSize) {
+            ranges.add(new long[] { from, Math.min(headers, from + rangeSize) - 1 });
+        }
+        AtomicInteger remaining = new AtomicInteger(ranges.size());
+        Map<Long, Block<T>> segments = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (Connection connection : connections) {
+            workers.add(CompletableFuture.runAsync(() -> download(connection, headerChain, ranges, remaining, segments), executor));
+        }
+        try {
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading the blocks");
+        } catch (ExecutionException e) {
+            throw new IOException("The download of the blocks failed", e.getCause());
+        }
+        if (remaining.get() > 0) {
+            throw new IOException("The blocks could not be downloaded from the connected nodes");
+        }
+        return assemble(headerChain, segments);
+    }
+
+    /**
+     * Return the current progress of the synchronization.
+     *
+     * @return the current progress of the synchronization.
+     */
+    SyncProgress getProgress() {
+        return new SyncProgress(headers, downloadedBlocks.get(), peers.get(), System.nanoTime() - start);
+    }
+
+    private void download(Connection connection, Block<T> headerChain, BlockingDeque<long[]> ranges, AtomicInteger remaining, Map<Long, Block<T>> segments) {
+        peers.incrementAndGet();
+        try {
+            while (remaining.get() > 0) {
+                long[] range = ranges.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (range == null) {
+                    continue;
+                }
+                try {
+                    segments.put(range[0], downloadRange(connection, headerChain, range[0], range[1]));
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("The blocks from {} to {} can not be downloaded from {} : {}", range[0], range[1], connection, e.getMessage());
+                    ranges.addFirst(range);
+                    return;
+                }
+                remaining.decrementAndGet();
+                downloadedBlocks.addAndGet(range[1] - range[0] + 1);
+                report();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            peers.decrementAndGet();
+        }
+    }
+
+    private Block<T> downloadRange(Connection connection, Block<T> headerChain, long from, long to) throws IOException {
+        connection.send(BODIES + ' ' + from + ' ' + to);
+        Message message = readMessage(connection, BODY_RANGE);
+        while (message != null && (message.getLong(1) != from || message.getLong(2) != to)) {
+            message.close();
+            message = readMessage(connection, BODY_RANGE);
+        }
+        if (message == null) {
+            throw new IOException("The connection has been closed");
+        }
+        Block<T> segment;
+        try {
+            if (!message.hasPayload()) {
+                throw new IOException("The remote node has not these blocks");
+            }
+            segment = codec.decode(message.getPayload(), headerChain);
+        } finally {
+            message.close();
+        }
+        if (segment.getIndex() != to || !segment.getHash().equals(headerChain.get(to).getHash())) {
+            throw new IOException("The blocks do not match the headers");
+        }
+        return segment;
+    }
+
+    /**
+     * Rebuild the downloaded chain from the headers and the downloaded blocks.
+     * The Merkle roots are not computed again : they are taken from the headers, which have been checked against their digests,
+     * or else from the downloaded blocks, which computed them when they were decoded.
+     */
+    private Block<T> assemble(Block<T> headerChain, Map<Long, Block<T>> segments) {
+        Block<T> block = null;
+        for (long from = 0; from < headers; from += rangeSize) {
+            Block<T> segment = segments.get(from);
+            for (long index = from; index <= segment.getIndex(); index++) {
+                Block<T> header = headerChain.get(index);
+                Block<T> body = segment.get(index);
+                block = new Block<>(body.getData(), null, block, header.getAlgorithm(), HashUtils.toArray(header.getHash()), Validity.VALID);
+                ByteBuffer root = header.getMerkleRoot();
+                if (root == null) {
+                    root = body.getMerkleRoot();
+                }
+                block.setMerkleRoot(root == null ? new byte[0] : HashUtils.toArray(root));
+            }
+        }
+        return block;
+    }
+
+    private void report() {
+        if (listener != null) {
+            listener.accept(getProgress());
+        }
+    }
+
+    private static Message readMessage(Connection connection, String... commands) throws IOException {
+        Message message;
+        while ((message = connection.take()) != null) {
+            for (String command : commands) {
+                if (command.equals(message.getCommand())) {
+                    return message;
+                }
+            }
+            message.close();
+        }
+        return null;
+    }
+
+    /**
+     * Encode the headers of a whole chain : the version of the format, the number of headers, the digest algorithm,
+     * the length of the digests, then for each block from the first one, its digest and the Merkle root of its data
+     * prefixed by its length as a short, or a zero length if the data is not a {@link Batch}.
+     *
+     * @param <T>
+     *            The class of the data contained in the blocks.
+     * @param tip
+     *            the last block of the chain
+     * @param out
+     *            the stream receiving the encoded headers
+     * @throws IOException
+     *             If the headers can not be written.
+     */
+    static <T extends Serializable> void encodeHeaders(Block<T> tip, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeByte(VERSION);
+        data.writeLong(tip.getIndex() + 1);
+        data.writeUTF(tip.getAlgorithm());
+        data.writeInt(tip.getHash().remaining());
+        for (long index = 0; index <= tip.getIndex(); index++) {
+            Block<T> block = tip.get(index);
+            data.write(HashUtils.toArray(block.getHash()));
+            ByteBuffer root = block.getMerkleRoot();
+            if (root == null) {
+                data.writeShort(0);
+            } else {
+                data.writeShort(root.remaining());
+                data.write(HashUtils.toArray(root));
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Decode the headers of a chain into blocks without data.
+     * The length of the digests is checked against the algorithm. The digest of a block containing a batch is checked against its Merkle root,
+     * the other digests are checked when the blocks are downloaded.
+     */
+    private Block<T> decodeHeaders(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte version = data.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of the headers format : " + version);
+        }
+        long count = data.readLong();
+        String algorithm = data.readUTF();
+        int hashLength = data.readInt();
+        int expectedLength = HashUtils.newMessageDigest(algorithm).getDigestLength();
+        if (count < 1 || hashLength <= 0 || expectedLength > 0 && hashLength != expectedLength) {
+            throw new IOException("Invalid headers : " + count + " digests of " + hashLength + " bytes with " + algorithm);
+        }
+        Block<T> block = null;
+        for (long index = 0; index < count; index++) {
+            byte[] hash = new byte[hashLength];
+            data.readFully(hash);
+            byte[] root = new byte[data.readUnsignedShort()];
+            data.readFully(root);
+            byte[] previousHash = block == null ? null : HashUtils.toArray(block.getHash());
+            if (root.length > 0 && !Arrays.equals(hash, HashUtils.digest(algorithm, index, previousHash, root))) {
+                throw new IOException("The header " + index + " does not match its Merkle root");
+            }
+            block = new Block<>(null, null, block, algorithm, hash, Validity.UNKNOWN);
+            if (root.length > 0) {
+                block.setMerkleRoot(root);
+            }
+        }
+        return block;
+    }
+}
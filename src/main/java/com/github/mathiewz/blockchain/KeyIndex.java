@@ -0,0 +1,103 @@
+package com.github.mathiewz.blockchain;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash index from a key extracted from the data of the blocks to the positions of these blocks.
+ * Only the hash code of the keys is kept, so neither the data nor the keys are retained by the index :
+ * the positions it returns are candidates, which must be checked against the data of the blocks.
+ * It is shared by the branches of a chain, which add their blocks to it, so a position may be returned several times,
+ * and the blocks of a position may differ between the branches.
+ * <p>
+ * The entries are kept in primitive arrays, chained by hash bucket, so an entry takes about 24 bytes.
+ * It is not thread-safe : the owning ChainIndex is responsible for the synchronization.
+ */
+final class KeyIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] buckets = new int[INITIAL_CAPACITY];
+
+    private int[] hashCodes = new int[INITIAL_CAPACITY];
+
+    private long[] positions = new long[INITIAL_CAPACITY];
+
+    private int[] next = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * Index the key of a block.
+     *
+     * @param position
+     *            the position of the block
+     * @param hashCode
+     *            the hash code of the key of the block
+     */
+    void add(long position, int hashCode) {
+        if (size == positions.length) {
+            if (size == Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("The index is full");
+            }
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8L, size * 2L);
+            hashCodes = Arrays.copyOf(hashCodes, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        if (size >= buckets.length - (buckets.length >>> 2) && buckets.length < 1 << 30) {
+            rehash(buckets.length * 2);
+        }
+        hashCodes[size] = hashCode;
+        positions[size] = position;
+        int bucket = bucket(hashCode);
+        next[size] = buckets[bucket];
+        buckets[bucket] = ++size;
+    }
+
+    /**
+     * Index the keys of consecutive blocks.
+     *
+     * @param firstPosition
+     *            the position of the first block
+     * @param blockHashCodes
+     *            the hash codes of the keys of the blocks, in the order of the positions
+     */
+    void addAll(long firstPosition, int[] blockHashCodes) {
+        for (int i = 0; i < blockHashCodes.length; i++) {
+            add(firstPosition + i, blockHashCodes[i]);
+        }
+    }
+
+    /**
+     * Add to a list the positions of the blocks whose key has the specified hash code.
+     *
+     * @param hashCode
+     *            the hash code of the key to look for
+     * @param limit
+     *            the highest position to consider, inclusive
+     * @param result
+     *            the list receiving the positions
+     */
+    void collect(int hashCode, long limit, List<Long> result) {
+        for (int entry = buckets[bucket(hashCode)]; entry != 0; entry = next[entry - 1]) {
+            if (hashCodes[entry - 1] == hashCode && positions[entry - 1] <= limit) {
+                result.add(positions[entry - 1]);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        buckets = new int[capacity];
+        for (int entry = 0; entry < size; entry++) {
+            int bucket = bucket(hashCodes[entry]);
+            next[entry] = buckets[bucket];
+            buckets[bucket] = entry + 1;
+        }
+    }
+
+    private int bucket(int hashCode) {
+        int hash = hashCode * 0x9e3779b9;
+        return (hash ^ hash >>> 16) & buckets.length - 1;
+    }
+}
@@ -0,0 +1,341 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A bounded pool of data waiting to be added to a chain.
+ * <p>
+ * A data is ignored while a data with the same key is pending. The data are taken by decreasing priority,
+ * then in the order they have been added. When the pool is full, a new data replaces the pending data with the lowest priority
+ * if it has a higher priority, otherwise it is refused, so the producers can slow down. The data pending for longer than
+ * the time to live are dropped.
+ * <p>
+ * The pool can feed a {@link Node}, see {@link NodeOptions#setMempool(Mempool)}, or be drained to create blocks with {@link Node#addBlocks(java.util.Collection)}.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public class Mempool<T extends Serializable> {
+
+    private final int capacity;
+
+    private final Function<? super T, ?> key;
+
+    private final Comparator<? super T> priority;
+
+    private final long timeToLiveNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Map<Object, Entry<T>> byKey = new LinkedHashMap<>();
+
+    private final TreeSet<Entry<T>> byPriority;
+
+    private long sequence;
+
+    private long added;
+
+    private long duplicates;
+
+    private long rejected;
+
+    private long evicted;
+
+    private long expired;
+
+    /**
+     * Create a pool identifying the data by themselves and giving them to the node in the order they are added, without time to live.
+     *
+     * @param capacity
+     *            the maximum number of pending data
+     * @throws IllegalArgumentException
+     *             If the capacity is lower than 1
+     */
+    public Mempool(int capacity) {
+        this(capacity, Function.identity(), null, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param capacity
+     *            the maximum number of pending data
+     * @param key
+     *            the function computing the key of a data, a data being ignored while a data with the same key is pending
+     * @param priority
+     *            the comparator of the data, the greatest data being taken first, or null to take the data in the order they are added
+     * @param timeToLive
+     *            the time after which a pending data is dropped, or 0 to keep the data until they are taken
+     * @param unit
+     *            the unit of the time to live
+     * @throws IllegalArgumentException
+     *             If the capacity is lower than 1, or if the time to live is negative
+     */
+    public Mempool(int capacity, Function<? super T, ?> key, Comparator<? super T> priority, long timeToLive, TimeUnit unit) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1 : " + capacity);
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("The time to live can not be negative : " + timeToLive);
+        }
+        this.capacity = capacity;
+        this.key = key;
+        this.priority = priority;
+        timeToLiveNanos = unit.toNanos(timeToLive);
+        Comparator<Entry<T>> order = (first, second) -> Long.compare(first.sequence, second.sequence);
+        if (priority != null) {
+            order = Comparator.<Entry<T>, T> comparing(entry -> entry.data, priority.reversed()).thenComparing(order);
+        }
+        byPriority = new TreeSet<>(order);
+    }
+
+    /**
+     * Add a data to the pool if it is not full, or if the data has a higher priority than a pending data.
+     *
+     * @param data
+     *            the data to add
+     * @return true if the data is pending, including when a data with the same key was already pending,
+     *         false if it has been refused because the pool is full
+     */
+    public boolean offer(T data) {
+        lock.lock();
+        try {
+            return insert(data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a data to the pool, waiting for a free place if the pool is full.
+     *
+     * @param data
+     *            the data to add
+     * @param timeout
+     *            the maximum time to wait for a free place
+     * @param unit
+     *            the unit of the timeout
+     * @return true if the data is pending, including when a data with the same key was already pending,
+     *         false if it has been refused because the pool is still full after the timeout
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting
+     */
+    public boolean offer(T data, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (byKey.size() >= capacity && !byKey.containsKey(key.apply(data)) && !outranksLowest(data) && nanos > 0) {
+                nanos = notFull.awaitNanos(nanos);
+                expire();
+            }
+            return insert(data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the pending data with the highest priorities, without waiting.
+     *
+     * @param maxSize
+     *            the maximum number of data to take
+     * @return the data taken, by decreasing priority, possibly empty
+     */
+    public List<T> poll(int maxSize) {
+        lock.lock();
+        try {
+            expire();
+            return removeFirst(maxSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the pending data with the highest priorities, waiting for a data to be pending,
+     * then waiting for more data during the linger time unless the maximum number of data are already pending.
+     * The linger time ends early when the oldest pending data is about to expire,
+     * and if the pending data are taken by another thread meanwhile, it waits again for a data to be pending.
+     *
+     * @param maxSize
+     *            the maximum number of data to take
+     * @param linger
+     *            the time waited for more data once a data is pending
+     * @param unit
+     *            the unit of the linger time
+     * @return the data taken, by decreasing priority, at least one
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting
+     */
+    public List<T> take(int maxSize, long linger, TimeUnit unit) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                expire();
+                while (byKey.isEmpty()) {
+                    notEmpty.await();
+                    expire();
+                }
+                long deadline = System.nanoTime() + unit.toNanos(linger);
+                while (byKey.size() < maxSize) {
+                    long nanos = lingerNanos(deadline);
+                    if (nanos <= 0) {
+                        break;
+                    }
+                    notEmpty.awaitNanos(nanos);
+                }
+                // The linger time ends before the pending data expire, so they are all taken
+                if (!byKey.isEmpty()) {
+                    return removeFirst(maxSize);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of pending data.
+     *
+     * @return the number of pending data.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            expire();
+            return byKey.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return a snapshot of the counters of the pool.
+     *
+     * @return a snapshot of the counters of the pool.
+     */
+    public MempoolStats getStats() {
+        lock.lock();
+        try {
+            expire();
+            return new MempoolStats(byKey.size(), capacity, added, duplicates, rejected, evicted, expired);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean insert(T data) {
+        expire();
+        Object dataKey = key.apply(data);
+        if (byKey.containsKey(dataKey)) {
+            duplicates++;
+            return true;
+        }
+        if (byKey.size() >= capacity) {
+            if (!outranksLowest(data)) {
+                rejected++;
+                return false;
+            }
+            remove(byPriority.last());
+            evicted++;
+        }
+        long expiry = timeToLiveNanos > 0 ? System.nanoTime() + timeToLiveNanos : 0;
+        Entry<T> entry = new Entry<>(data, dataKey, sequence++, expiry);
+        byKey.put(dataKey, entry);
+        byPriority.add(entry);
+        added++;
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Return the time left to wait for more data, until the deadline or until the oldest pending data expires.
+     */
+    private long lingerNanos(long deadline) {
+        long now = System.nanoTime();
+        long nanos = deadline - now;
+        if (timeToLiveNanos > 0 && !byKey.isEmpty()) {
+            nanos = Math.min(nanos, byKey.values().iterator().next().expiry - now);
+        }
+        return nanos;
+    }
+
+    private boolean outranksLowest(T data) {
+        return priority != null && !byPriority.isEmpty() && priority.compare(data, byPriority.last().data) > 0;
+    }
+
+    private List<T> removeFirst(int maxSize) {
+        List<T> data = new ArrayList<>(Math.min(maxSize, byKey.size()));
+        while (data.size() < maxSize && !byPriority.isEmpty()) {
+            Entry<T> entry = byPriority.first();
+            remove(entry);
+            data.add(entry.data);
+        }
+        if (!data.isEmpty()) {
+            notFull.signalAll();
+        }
+        return data;
+    }
+
+    private void remove(Entry<T> entry) {
+        byPriority.remove(entry);
+        byKey.remove(entry.key);
+    }
+
+    /**
+     * Drop the data pending for longer than the time to live, which are the first ones added.
+     */
+    private void expire() {
+        if (timeToLiveNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean dropped = false;
+        for (Iterator<Entry<T>> it = byKey.values().iterator(); it.hasNext();) {
+            Entry<T> entry = it.next();
+            if (entry.expiry - now > 0) {
+                break;
+            }
+            it.remove();
+            byPriority.remove(entry);
+            expired++;
+            dropped = true;
+        }
+        if (dropped) {
+            notFull.signalAll();
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final T data;
+
+        private final Object key;
+
+        private final long sequence;
+
+        private final long expiry;
+
+        private Entry(T data, Object key, long sequence, long expiry) {
+            this.data = data;
+            this.key = key;
+            this.sequence = sequence;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.mathiewz.blockchain;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A snapshot of the counters of a {@link Mempool}.
+ */
+public final class MempoolStats {
+
+    private final int depth;
+
+    private final int capacity;
+
+    private final long added;
+
+    private final long duplicates;
+
+    private final long rejected;
+
+    private final long evicted;
+
+    private final long expired;
+
+    MempoolStats(int depth, int capacity, long added, long duplicates, long rejected, long evicted, long expired) {
+        this.depth = depth;
+        this.capacity = capacity;
+        this.added = added;
+        this.duplicates = duplicates;
+        this.rejected = rejected;
+        this.evicted = evicted;
+        this.expired = expired;
+    }
+
+    /**
+     * Return the number of pending data.
+     *
+     * @return the number of pending data.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the maximum number of pending data.
+     *
+     * @return the maximum number of pending data.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the number of data added to the mempool.
+     *
+     * @return the number of data added to the mempool.
+     */
+    public long getAdded() {
+        return added;
+    }
+
+    /**
+     * Return the number of data ignored because a data with the same key was already pending.
+     *
+     * @return the number of duplicated data.
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Return the number of data refused because the mempool was full.
+     *
+     * @return the number of data refused because the mempool was full.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Return the number of pending data dropped to make room for a data with a higher priority.
+     *
+     * @return the number of pending data dropped for a data with a higher priority.
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Return the number of pending data dropped because they have been pending for longer than the time to live.
+     *
+     * @return the number of expired data.
+     */
+    public long getExpired() {
+        return expired;
+    }
+
+    /**
+     * Return the number of data dropped once pending, either evicted or expired.
+     *
+     * @return the number of data dropped once pending.
+     */
+    public long getDropped() {
+        return evicted + expired;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("depth", depth)
+                .append("capacity", capacity)
+                .append("added", added)
+                .append("duplicates", duplicates)
+                .append("rejected", rejected)
+                .append("evicted", evicted)
+                .append("expired", expired)
+                .build();
+    }
+}
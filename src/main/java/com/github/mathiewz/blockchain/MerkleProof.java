@@ -0,0 +1,127 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The proof that an item belongs to a {@link Batch} : the position of the item, the number of items of the batch,
+ * and the digests of the siblings of the path from the leaf of the item to the root of the Merkle tree.
+ * The proof can be checked against the root of the batch without its other items : as the root covers the number of items,
+ * a proof claiming another number of items or another position does not lead to the root.
+ */
+public final class MerkleProof implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String algorithm;
+
+    private final int index;
+
+    private final int count;
+
+    private final byte[][] siblings;
+
+    MerkleProof(String algorithm, int index, int count, byte[][] siblings) {
+        this.algorithm = algorithm;
+        this.index = index;
+        this.count = count;
+        this.siblings = siblings;
+    }
+
+    /**
+     * Return the digest algorithm used by the Merkle tree.
+     *
+     * @return the name of the digest algorithm used by the Merkle tree.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Return the position of the item in the batch.
+     *
+     * @return the position of the item in the batch.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Return the number of items of the batch.
+     *
+     * @return the number of items of the batch.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Return the number of digests of the proof.
+     *
+     * @return the number of digests of the proof.
+     */
+    public int getLength() {
+        return siblings.length;
+    }
+
+    /**
+     * Check that an item is at the position of the proof in a batch.
+     *
+     * @param item
+     *            the item
+     * @param root
+     *            the root of the Merkle tree of the batch, see {@link Batch#getRoot()}
+     * @return true if the item is at the position of the proof in the batch having this root
+     */
+    public boolean verify(Serializable item, ByteBuffer root) {
+        if (index < 0 || index >= count) {
+            return false;
+        }
+        MessageDigest messageDigest = HashUtils.newMessageDigest(algorithm);
+        byte[] hash = HashUtils.merkleLeaf(messageDigest, item);
+        int position = index;
+        int width = count;
+        int used = 0;
+        while (width > 1) {
+            if ((position ^ 1) < width) {
+                if (used == siblings.length) {
+                    return false;
+                }
+                byte[] sibling = siblings[used++];
+                hash = (position & 1) == 0 ? HashUtils.merkleNode(messageDigest, hash, sibling) : HashUtils.merkleNode(messageDigest, sibling, hash);
+            }
+            position /= 2;
+            width = (width + 1) / 2;
+        }
+        return used == siblings.length && ByteBuffer.wrap(HashUtils.merkleRoot(messageDigest, count, hash)).equals(root);
+    }
+
+    /**
+     * Check that an item is at the position of the proof in the batch contained in a block.
+     * The block must be trusted, for instance a block of a validated chain or a header downloaded from a trusted node,
+     * as the proof only shows that the item is covered by the digest of this block.
+     *
+     * @param item
+     *            the item
+     * @param block
+     *            the block containing the batch
+     * @return true if the item is at the position of the proof in the batch of the block, false if it is not, or if the block does not contain a batch
+     */
+    public boolean verify(Serializable item, Block<?> block) {
+        ByteBuffer root = block.getMerkleRoot();
+        return root != null && verify(item, root);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("algorithm", algorithm)
+                .append("index", index)
+                .append("count", count)
+                .append("length", siblings.length)
+                .build();
+    }
+}
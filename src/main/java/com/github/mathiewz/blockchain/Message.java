@@ -0,0 +1,361 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A message exchanged between nodes : a header made of words separated by spaces, the first one being the command,
+ * followed by an optional binary payload.
+ * <p>
+ * On the wire, a message is made of frames, each one being its length, as an int, then its content.
+ * The first frame contains the header in ASCII ended by a new line, then the beginning of the payload.
+ * While the highest bit of the length of a frame is set, the payload goes on in the next frame,
+ * so a payload of any size is sent and received in chunks of {@link #CHUNK_SIZE} bytes.
+ */
+final class Message implements Closeable {
+
+    /**
+     * The maximum length of the content of the frames sent.
+     */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The maximum length of a frame received, so a corrupted length does not allocate the whole heap.
+     */
+    static final int MAX_SIZE = 1 << 24;
+
+    /**
+     * The bit of the length of a frame set when the payload goes on in the next frame.
+     */
+    private static final int CONTINUED = Integer.MIN_VALUE;
+
+    private static final int INITIAL_FRAME_SIZE = 256;
+
+    /**
+     * The message read from a connection once it has been closed.
+     */
+    static final Message CLOSED = new Message(new String[] { "" }, new byte[0], 0, null);
+
+    private final String[] header;
+
+    private final byte[] frame;
+
+    private final int payloadOffset;
+
+    private final InputStream continuation;
+
+    private Message(String[] header, byte[] frame, int payloadOffset, InputStream continuation) {
+        this.header = header;
+        this.frame = frame;
+        this.payloadOffset = payloadOffset;
+        this.continuation = continuation;
+    }
+
+    /**
+     * Parse the content of the first frame of a message, without its length.
+     *
+     * @param frame
+     *            the content of the frame
+     * @param continuation
+     *            the end of the payload, read from the next frames, or null if the message is made of a single frame
+     * @return the message
+     * @throws IOException
+     *             If the frame does not contain a header.
+     */
+    static Message parse(byte[] frame, InputStream continuation) throws IOException {
+        int end = 0;
+        while (end < frame.length && frame[end] != '\n') {
+            end++;
+        }
+        if (end == frame.length) {
+            throw new IOException("The message does not contain a header");
+        }
+        return new Message(new String(frame, 0, end, StandardCharsets.US_ASCII).split(" "), frame, end + 1, continuation);
+    }
+
+    /**
+     * Return the length of the content of a frame.
+     *
+     * @param length
+     *            the length read before the content of the frame
+     * @return the length of the content
+     * @throws IOException
+     *             If the length is too long.
+     */
+    static int contentLength(int length) throws IOException {
+        int size = length & ~CONTINUED;
+        if (size > MAX_SIZE) {
+            throw new IOException("Invalid length of message : " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Check if the payload goes on in the next frame.
+     *
+     * @param length
+     *            the length read before the content of a frame
+     * @return true if the frame is followed by another frame of the same message
+     */
+    static boolean isContinued(int length) {
+        return (length & CONTINUED) != 0;
+    }
+
+    /**
+     * Encode a message without payload into a frame.
+     *
+     * @param header
+     *            the header of the message
+     * @return the frame, including its length
+     */
+    static ByteBuffer encode(String header) {
+        try {
+            return encode(header, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encode a message into frames, kept in memory so they can be sent to several connections.
+     * The messages whose payload may be large are rather streamed to a connection, see {@link Connection#send(String, Encoder)}.
+     *
+     * @param header
+     *            the header of the message
+     * @param payload
+     *            the encoder of the payload, or null if the message has no payload
+     * @return the frames, including their length
+     * @throws IOException
+     *             If the payload can not be encoded.
+     */
+    static ByteBuffer encode(String header, Encoder payload) throws IOException {
+        FrameBuffer frames = new FrameBuffer();
+        FrameOutputStream out = new FrameOutputStream(header, frames);
+        if (payload != null) {
+            payload.encode(out);
+        }
+        out.close();
+        return frames.toBuffer();
+    }
+
+    /**
+     * Return the command of the message.
+     *
+     * @return the command of the message.
+     */
+    String getCommand() {
+        return header[0];
+    }
+
+    /**
+     * Return an argument of the message, following the command in the header.
+     *
+     * @param position
+     *            the position of the argument, starting at 1
+     * @return the argument
+     * @throws IOException
+     *             If the message has not this argument.
+     */
+    String getArgument(int position) throws IOException {
+        if (position >= header.length) {
+            throw new IOException("Missing argument " + position + " in the message " + header[0]);
+        }
+        return header[position];
+    }
+
+    /**
+     * Return an argument of the message as a long.
+     *
+     * @param position
+     *            the position of the argument, starting at 1
+     * @return the argument
+     * @throws IOException
+     *             If the message has not this argument, or if it is not a number.
+     */
+    long getLong(int position) throws IOException {
+        String argument = getArgument(position);
+        try {
+            return Long.parseLong(argument);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid argument " + argument + " in the message " + header[0], e);
+        }
+    }
+
+    /**
+     * Check if the message has a payload.
+     *
+     * @return true if the message has a non empty payload
+     */
+    boolean hasPayload() {
+        return frame.length > payloadOffset || continuation != null;
+    }
+
+    /**
+     * Return the payload of the message.
+     * The payload of a message made of several frames is received while it is read, so it can be read only once.
+     *
+     * @return a stream reading the payload of the message.
+     */
+    InputStream getPayload() {
+        InputStream first = new ByteArrayInputStream(frame, payloadOffset, frame.length - payloadOffset);
+        return continuation == null ? first : new SequenceInputStream(first, continuation);
+    }
+
+    /**
+     * Return the length of the first frame of the message, without its length.
+     *
+     * @return the length of the first frame
+     */
+    int getFrameLength() {
+        return frame.length;
+    }
+
+    /**
+     * Discard the end of the payload not read yet, so the connection goes on reading the next messages.
+     */
+    @Override
+    public void close() {
+        if (continuation != null) {
+            try {
+                continuation.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Write the payload of a message.
+     */
+    interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Take the frames of a message as they are encoded.
+     */
+    interface FrameSink {
+        void accept(ByteBuffer frame) throws IOException;
+    }
+
+    /**
+     * A stream cutting a message into frames, given to a sink each time a frame is full, and the last one once the stream is closed.
+     * The frames are wrapped without being copied.
+     */
+    static final class FrameOutputStream extends OutputStream {
+
+        private final FrameSink sink;
+
+        private byte[] buffer = new byte[INITIAL_FRAME_SIZE];
+
+        private int count = Integer.BYTES;
+
+        /**
+         * Start a message.
+         *
+         * @param header
+         *            the header of the message
+         * @param sink
+         *            the sink taking the frames of the message
+         * @throws IOException
+         *             If the sink fails.
+         */
+        FrameOutputStream(String header, FrameSink sink) throws IOException {
+            this.sink = sink;
+            write(header.getBytes(StandardCharsets.US_ASCII));
+            write('\n');
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            room(1);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                int length = room(remaining);
+                System.arraycopy(b, offset, buffer, count, length);
+                count += length;
+                offset += length;
+                remaining -= length;
+            }
+        }
+
+        /**
+         * Send the current frame if it is full, and grow it for the next bytes.
+         *
+         * @return the number of bytes which can be written in the current frame, at most the number requested
+         */
+        private int room(int wanted) throws IOException {
+            if (buffer == null) {
+                throw new IOException("The message has already been sent");
+            }
+            if (count == Integer.BYTES + CHUNK_SIZE) {
+                send(true);
+            }
+            int length = Math.min(wanted, Integer.BYTES + CHUNK_SIZE - count);
+            if (count + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(Integer.BYTES + CHUNK_SIZE, Math.max(2 * buffer.length, count + length)));
+            }
+            return length;
+        }
+
+        private void send(boolean continued) throws IOException {
+            ByteBuffer frame = ByteBuffer.wrap(buffer, 0, count);
+            frame.putInt(0, continued ? (count - Integer.BYTES) | CONTINUED : count - Integer.BYTES);
+            // The sink keeps the buffer of the frame
+            buffer = continued ? new byte[buffer.length] : null;
+            count = Integer.BYTES;
+            sink.accept(frame);
+        }
+
+        /**
+         * Send the last frame of the message.
+         */
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                send(false);
+            }
+        }
+    }
+
+    /**
+     * The frames of a message kept in a single buffer.
+     */
+    private static final class FrameBuffer implements FrameSink {
+
+        private ByteBuffer first;
+
+        private ByteArrayOutputStream frames;
+
+        @Override
+        public void accept(ByteBuffer frame) {
+            if (first == null) {
+                first = frame;
+                return;
+            }
+            if (frames == null) {
+                frames = new ByteArrayOutputStream(2 * first.remaining());
+                frames.write(first.array(), first.arrayOffset(), first.remaining());
+            }
+            frames.write(frame.array(), frame.arrayOffset(), frame.remaining());
+        }
+
+        private ByteBuffer toBuffer() {
+            return frames == null ? first : ByteBuffer.wrap(frames.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a range of blocks can not be chained to the local chain,
+ * because the local chain does not contain the block preceding the range.
+ * The blocks can be requested again from an earlier index.
+ */
+public class MissingParentException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long from;
+
+    /**
+     * Create a new exception for a range of blocks.
+     *
+     * @param from
+     *            the index of the first block of the range
+     */
+    public MissingParentException(long from) {
+        super("The blocks starting at " + from + " do not follow the local chain");
+        this.from = from;
+    }
+
+    /**
+     * Return the index of the first block of the range which can not be chained.
+     *
+     * @return the index of the first block of the range
+     */
+    public long getFrom() {
+        return from;
+    }
+}
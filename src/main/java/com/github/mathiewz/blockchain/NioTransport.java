@@ -0,0 +1,451 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A non-blocking transport, serving all the connections from a fixed number of event loops.
+ * <p>
+ * Each event loop waits on its own {@link Selector} and reads the connections it serves through a single direct buffer,
+ * so the memory used by a connection is reduced to the frames it is reading and sending.
+ * The connections are distributed among the event loops in turn, and the connections are accepted by the first event loop.
+ * The event loops only read and write the connections : the messages are handled on the executor of the transport,
+ * and a connection is not read while its backlog is full.
+ * A frame received is allocated as its bytes arrive, not from its announced length.
+ * The frames waiting to be written are bounded too : a connection whose remote node does not read them is closed.
+ * <p>
+ * The selection keys and the channels are only modified on the thread of their event loop, closing a connection included,
+ * and a failure while serving a connection only closes this connection : the event loop keeps serving the other ones.
+ */
+final class NioTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioTransport.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final EventLoop[] loops;
+
+    private final Executor executor;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Create a transport and start its event loops.
+     *
+     * @param eventLoops
+     *            the number of event loops, at least 1
+     * @param executor
+     *            the executor handling the messages received
+     * @throws UncheckedIOException
+     *             If the selectors can not be opened.
+     */
+    NioTransport(int eventLoops, Executor executor) {
+        this.executor = executor;
+        loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "node-event-loop-" + i);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void listen(int port, Handler handler) {
+        try {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            loops[0].execute(() -> {
+                try {
+                    server.register(loops[0].selector, SelectionKey.OP_ACCEPT, handler);
+                } catch (ClosedChannelException e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Connection connect(InetSocketAddress remote, Handler handler) throws IOException {
+        SocketChannel channel = SocketChannel.open(remote);
+        NioConnection connection = new NioConnection(channel, handler);
+        connection.onLoop(connection::register);
+        return connection;
+    }
+
+    private EventLoop nextLoop() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    private static void transfer(ByteBuffer from, ByteBuffer to) {
+        int length = Math.min(from.remaining(), to.remaining());
+        ByteBuffer slice = from.duplicate();
+        slice.limit(slice.position() + length);
+        to.put(slice);
+        from.position(from.position() + length);
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        private EventLoop() {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    LOGGER.error("The event loop can not select its connections, they are closed", e);
+                    closeAll();
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isValid() && key.isAcceptable()) {
+                            accept(key);
+                        } else if (key.isValid()) {
+                            process(key);
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.error(e.getMessage(), e);
+                        close(key);
+                    }
+                }
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+
+        private void accept(SelectionKey key) {
+            ServerSocketChannel server = (ServerSocketChannel) key.channel();
+            Handler handler = (Handler) key.attachment();
+            try {
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    NioConnection connection = new NioConnection(channel, handler);
+                    try {
+                        handler.accepted(connection);
+                    } catch (RuntimeException e) {
+                        LOGGER.error(e.getMessage(), e);
+                        connection.close();
+                        continue;
+                    }
+                    connection.onLoop(connection::register);
+                }
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+
+        private void process(SelectionKey key) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection.isClosed()) {
+                return;
+            }
+            try {
+                if (key.isReadable()) {
+                    connection.read(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+                connection.close();
+            }
+        }
+    }
+
+    private final class NioConnection extends Connection {
+
+        private final SocketChannel channel;
+
+        private final Handler handler;
+
+        private final EventLoop loop;
+
+        private final SocketAddress remoteAddress;
+
+        private final Queue<OutgoingMessage> outbox = new ConcurrentLinkedQueue<>();
+
+        private final AtomicLong pending = new AtomicLong();
+
+        private final ByteBuffer length = ByteBuffer.allocateDirect(Integer.BYTES);
+
+        private ByteBuffer incoming;
+
+        private int incomingLength;
+
+        private boolean continued;
+
+        private ByteBuffer writing;
+
+        private boolean writeBlocked;
+
+        private boolean readPaused;
+
+        private SelectionKey key;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private NioConnection(SocketChannel channel, Handler handler) throws IOException {
+            this.channel = channel;
+            this.handler = handler;
+            loop = nextLoop();
+            remoteAddress = channel.getRemoteAddress();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+
+        private void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                flush();
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage(), e);
+                close();
+            }
+        }
+
+        /**
+         * Run a task on the event loop of the connection, closing the connection if it fails.
+         */
+        private void onLoop(Runnable task) {
+            loop.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    close();
+                }
+            });
+        }
+
+        /**
+         * Read the available bytes, giving each frame to the connection as soon as it is complete,
+         * and stop reading the channel while the backlog of the connection is full.
+         */
+        private void read(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                close();
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (incoming == null) {
+                    transfer(buffer, length);
+                    if (length.hasRemaining()) {
+                        break;
+                    }
+                    int header = length.getInt(0);
+                    length.clear();
+                    incomingLength = Message.contentLength(header);
+                    continued = Message.isContinued(header);
+                    incoming = ByteBuffer.allocate(Math.min(incomingLength, READ_BUFFER_SIZE));
+                }
+                if (incoming.position() < incomingLength) {
+                    if (!incoming.hasRemaining()) {
+                        // The frame grows with the bytes received, whatever the length announced
+                        ByteBuffer larger = ByteBuffer.allocate(Math.min(incomingLength, 2 * incoming.capacity()));
+                        incoming.flip();
+                        larger.put(incoming);
+                        incoming = larger;
+                    }
+                    transfer(buffer, incoming);
+                }
+                if (incoming.position() == incomingLength) {
+                    byte[] content = incoming.array();
+                    incoming = null;
+                    received(content, continued, handler, executor);
+                }
+            }
+            if (isBacklogged()) {
+                readPaused = true;
+                updateInterest();
+            }
+        }
+
+        @Override
+        void resumeReading() {
+            onLoop(() -> {
+                readPaused = false;
+                updateInterest();
+            });
+        }
+
+        /**
+         * Write the pending frames, waiting for the channel to be writable again if it can not take them all,
+         * or for the next frame of a message still being encoded.
+         */
+        private void flush() throws IOException {
+            if (key == null || !key.isValid() || closed.get()) {
+                return;
+            }
+            writeBlocked = false;
+            OutgoingMessage message;
+            while ((message = outbox.peek()) != null) {
+                if (writing == null) {
+                    writing = message.poll();
+                    if (writing == null) {
+                        break;
+                    }
+                    if (writing == OutgoingMessage.END) {
+                        writing = null;
+                        outbox.poll();
+                        continue;
+                    }
+                }
+                channel.write(writing);
+                if (writing.hasRemaining()) {
+                    writeBlocked = true;
+                    break;
+                }
+                pending.addAndGet(-writing.limit());
+                writing = null;
+            }
+            updateInterest();
+        }
+
+        private void flushOrClose() {
+            try {
+                flush();
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage(), e);
+                close();
+            }
+        }
+
+        private void updateInterest() {
+            if (key != null && key.isValid()) {
+                key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (writeBlocked ? SelectionKey.OP_WRITE : 0));
+            }
+        }
+
+        @Override
+        void send(ByteBuffer frames) throws IOException {
+            checkOpen();
+            if (pending.get() > MAX_PENDING) {
+                close();
+                throw new IOException("The node " + remoteAddress + " does not read its messages, the connection is closed");
+            }
+            pending.addAndGet(frames.remaining());
+            outbox.add(new OutgoingMessage(frames));
+            onLoop(this::flushOrClose);
+        }
+
+        @Override
+        void send(String header, Message.Encoder payload) throws IOException {
+            checkOpen();
+            OutgoingMessage message = new OutgoingMessage();
+            outbox.add(message);
+            if (isClosed()) {
+                message.discard();
+            }
+            stream(header, payload, frame -> {
+                pending.addAndGet(frame.remaining());
+                message.accept(frame);
+                onLoop(this::flushOrClose);
+            });
+            message.end();
+            onLoop(this::flushOrClose);
+        }
+
+        private void checkOpen() throws IOException {
+            if (isClosed()) {
+                throw new IOException("The connection to " + remoteAddress + " is closed");
+            }
+        }
+
+        @Override
+        boolean isClosed() {
+            return closed.get() || !channel.isOpen();
+        }
+
+        /**
+         * Close the connection. The waiting messages are discarded at once, but the channel is closed on the event loop,
+         * since closing it cancels its selection key.
+         */
+        @Override
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            OutgoingMessage message;
+            while ((message = outbox.poll()) != null) {
+                message.discard();
+            }
+            closed();
+            loop.execute(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage(), e);
+                }
+            });
+        }
+
+        @Override
+        SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+    }
+}
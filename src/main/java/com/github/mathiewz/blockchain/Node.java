@@ -1,32 +1,127 @@
 package com.github.mathiewz.blockchain;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A node of the network, keeping a chain and synchronizing it with the connected nodes.
+ * <p>
+ * The nodes exchange {@link Message messages}, made of a command with its arguments and an optional binary payload :
+ * <ul>
+ * <li>{@code tip <index> <digest>} announces the latest block of the chain of a node</li>
+ * <li>{@code blocks <from>} asks for the blocks of the chain from an index to the latest block</li>
+ * <li>{@code range} contains a range of blocks encoded by the codec of the node</li>
+ * <li>{@code headers} and {@code bodies <from> <to>} ask for the headers of the chain and for a range of blocks,
+ * answered by {@code headerrange} and {@code bodyrange <from> <to>}. They are only sent when a node joins the network, see {@link HeadersFirstSync}</li>
+ * </ul>
+ * A new block is sent alone to the connected nodes. When a range of blocks does not follow the local chain,
+ * the blocks are requested again from an earlier index, going back further after each failure, until they meet the local chain.
+ * <p>
+ * The latest block of the chain is replaced atomically, so the blocks can be added from several threads while the chains
+ * received from the other nodes are handled : a received chain replaces the local one only if it is still the latest block
+ * it has been compared with.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
 public class Node<T extends Serializable> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Node.class);
 
-    private List<Socket> nodes = new ArrayList<>();
+    private static final String TIP = "tip";
 
-    private Block<T> currentBlock;
+    private static final String BLOCKS = "blocks";
+
+    private static final String RANGE = "range";
+
+    private final List<Connection> nodes = new CopyOnWriteArrayList<>();
+
+    private final AtomicReference<Block<T>> currentBlock = new AtomicReference<>();
+
+    /**
+     * The lock serializing the local appends. It is held while the blocks are saved and written to the disk,
+     * so it is not a monitor : the virtual threads waiting for it do not pin their carrier threads.
+     */
+    private final Lock appendLock = new ReentrantLock();
+
+    /**
+     * The lock serializing the saves of the chain to the store.
+     */
+    private final Lock persistLock = new ReentrantLock();
+
+    private final Lock emitLock = new ReentrantLock();
+
+    private final Condition emittedChanged = emitLock.newCondition();
+
+    /**
+     * The number of local appends, guarded by the append lock.
+     */
+    private long appended;
+
+    /**
+     * The number of local appends sent to the other nodes, guarded by the emit lock.
+     */
+    private long emitted;
+
+    private final BlockingQueue<Submission<T>> submissions = new LinkedBlockingQueue<>();
+
+    private final AtomicBoolean appenderStarted = new AtomicBoolean();
+
+    private final int maxBatchSize;
+
+    private final long batchLingerNanos;
+
+    private final Mempool<T> mempool;
+
+    private final BlockStore<T> store;
+
+    private final BlockCodec<T> codec;
+
+    private final Executor executor;
+
+    private final Transport transport;
+
+    private final Transport.Handler handler = new Transport.Handler() {
+
+        @Override
+        public void accepted(Connection connection) {
+            nodes.add(connection);
+        }
+
+        @Override
+        public void received(Connection connection, Message message) throws IOException {
+            if (!connection.offer(message)) {
+                try {
+                    handle(connection, message);
+                } finally {
+                    message.close();
+                }
+            }
+        }
+    };
+
+    private SyncProgress syncProgress;
 
     /**
      * Create a new node and connect to another.
@@ -44,10 +139,57 @@ public class Node<T extends Serializable> {
      *             If the data send by the other note is not of the same Class that this node.
      */
     public Node(int localPort, String remoteAdress, int remotePort) throws IOException, ClassNotFoundException {
-        this(localPort, null);
-        Socket socket = new Socket(remoteAdress, remotePort);
-        nodes.add(socket);
-        ask(socket);
+        this(localPort, remoteAdress, remotePort, new NodeOptions<>());
+    }
+
+    /**
+     * Create a new node with the specified options and connect to another.
+     * The data will be initialized by getting the blockchain of the connected Node.
+     *
+     * @param localPort
+     *            the port where the node can be joined
+     * @param remoteAdress
+     *            the host of the remote node
+     * @param remotePort
+     *            the port of th remote node
+     * @param options
+     *            the options of the node
+     * @throws IOException
+     *             If the sync to the other node failed
+     * @throws ClassNotFoundException
+     *             If the data send by the other note is not of the same Class that this node.
+     */
+    public Node(int localPort, String remoteAdress, int remotePort, NodeOptions<T> options) throws IOException, ClassNotFoundException {
+        this(localPort, Collections.singletonList(new InetSocketAddress(remoteAdress, remotePort)), options);
+    }
+
+    /**
+     * Create a new node with the specified options and connect to several other nodes.
+     * The headers of the chain are downloaded from the first node, then the blocks are downloaded in parallel from all the nodes.
+     *
+     * @param localPort
+     *            the port where the node can be joined
+     * @param remotes
+     *            the addresses of the remote nodes
+     * @param options
+     *            the options of the node
+     * @throws IOException
+     *             If the sync to the other nodes failed
+     * @throws IllegalArgumentException
+     *             If no remote node is specified
+     */
+    public Node(int localPort, Collection<InetSocketAddress> remotes, NodeOptions<T> options) throws IOException {
+        this(localPort, null, null, options);
+        if (remotes.isEmpty()) {
+            throw new IllegalArgumentException("At least one remote node is needed");
+        }
+        List<Connection> connections = new ArrayList<>();
+        for (InetSocketAddress remote : remotes) {
+            Connection connection = transport.connect(remote, handler);
+            nodes.add(connection);
+            connections.add(connection);
+        }
+        bootstrap(connections, options);
     }
 
     /**
@@ -60,41 +202,296 @@ public class Node<T extends Serializable> {
      *            the first block of the chain
      */
     public Node(int port, Block<T> firstBlock) {
-        LOGGER.info("Node started on the port {}", port);
-        currentBlock = firstBlock;
-        new Thread() {
-            @Override
-            public void run() {
-                try (ServerSocket ss = new ServerSocket(port)) {
-                    while (true) {
-                        Socket s = ss.accept();
-                        nodes.add(s);
-                        Thread t = new NodeThread(s);
-                        t.start();
-                    }
-                } catch (IOException e) {
-                    LOGGER.error(e.getMessage(), e);
-                }
-            }
-        }.start();
+        this(port, firstBlock, new NodeOptions<>());
+    }
+
+    /**
+     * Create a new node with the specified options and initialized it with the specified block.
+     * This Node start without any connection to any other node.
+     *
+     * @param port
+     *            the port where the node can be joined
+     * @param firstBlock
+     *            the first block of the chain
+     * @param options
+     *            the options of the node
+     */
+    public Node(int port, Block<T> firstBlock, NodeOptions<T> options) {
+        this(port, firstBlock, null, options);
+    }
 
+    /**
+     * Create a new node and initialized it with the chain saved in a store.
+     * Every new block of the chain of the node will be saved in the store.
+     * This Node start without any connection to any other node.
+     *
+     * @param port
+     *            the port where the node can be joined
+     * @param store
+     *            the store containing the chain, with at least the first block
+     * @throws IOException
+     *             If the chain can not be read from the store
+     * @throws IllegalArgumentException
+     *             If the store is empty
+     */
+    public Node(int port, BlockStore<T> store) throws IOException {
+        this(port, load(store, 0), store, new NodeOptions<>());
+    }
+
+    /**
+     * Create a new node and initialized it with the chain saved in a store, without keeping the data of the blocks on the heap.
+     * The data of the stored blocks, including the blocks added to the chain of the node once they are saved,
+     * are read from the store when needed, through a cache keeping at most the specified number of data.
+     * Every new block of the chain of the node will be saved in the store.
+     * This Node start without any connection to any other node.
+     *
+     * @param port
+     *            the port where the node can be joined
+     * @param store
+     *            the store containing the chain, with at least the first block
+     * @param payloadCacheSize
+     *            the maximum number of data of stored blocks kept on the heap
+     * @throws IOException
+     *             If the chain can not be read from the store
+     * @throws IllegalArgumentException
+     *             If the store is empty
+     */
+    public Node(int port, BlockStore<T> store, int payloadCacheSize) throws IOException {
+        this(port, store, payloadCacheSize, new NodeOptions<>());
+    }
+
+    /**
+     * Create a new node with the specified options and initialized it with the chain saved in a store.
+     * Every new block of the chain of the node will be saved in the store.
+     * This Node start without any connection to any other node.
+     *
+     * @param port
+     *            the port where the node can be joined
+     * @param store
+     *            the store containing the chain, with at least the first block
+     * @param payloadCacheSize
+     *            the maximum number of data of stored blocks kept on the heap, or 0 to keep all the data on the heap
+     * @param options
+     *            the options of the node
+     * @throws IOException
+     *             If the chain can not be read from the store
+     * @throws IllegalArgumentException
+     *             If the store is empty
+     */
+    public Node(int port, BlockStore<T> store, int payloadCacheSize, NodeOptions<T> options) throws IOException {
+        this(port, load(store, payloadCacheSize), store, options);
+    }
+
+    private Node(int port, Block<T> firstBlock, BlockStore<T> store, NodeOptions<T> options) {
+        LOGGER.info("Node started on the port {}", port);
+        currentBlock.set(firstBlock);
+        this.store = store;
+        codec = options.getCodec();
+        maxBatchSize = options.getMaxBatchSize();
+        batchLingerNanos = options.getBatchLinger(TimeUnit.NANOSECONDS);
+        mempool = options.getMempool();
+        executor = options.getExecutor() != null ? options.getExecutor() : task -> new Thread(task).start();
+        if (options.getEventLoops() > 0) {
+            transport = new NioTransport(options.getEventLoops(), executor);
+        } else {
+            // Without executor, the messages are written by the thread producing them as before
+            transport = new SocketTransport(executor, options.getExecutor() != null);
+        }
+        transport.listen(port, handler);
+        if (firstBlock != null) {
+            startMempool();
+        }
     }
 
     /**
      * Add a new Block to the Node.
+     * Only the new block is sent to the other nodes. A node which can not receive it is disconnected.
      *
      * @param value
      *            the value contained in the block
      * @throws IOException
-     *             If the sending to the other node failed
+     *             If the block can not be saved. It is added to the chain and sent to the other nodes anyway.
      */
     public void addBlock(T value) throws IOException {
-        currentBlock = new Block<>(value, currentBlock);
-        emit(currentBlock);
+        // The local blocks are added one at a time, so they are saved and sent in the order of the chain
+        Block<T> block = null;
+        long ticket = 0;
+        appendLock.lock();
+        try {
+            Block<T> tip;
+            do {
+                tip = currentBlock.get();
+                block = new Block<>(value, tip);
+            } while (!currentBlock.compareAndSet(tip, block));
+            ticket = ++appended;
+            persist();
+        } finally {
+            appendLock.unlock();
+            if (ticket > 0) {
+                emitInOrder(ticket, block, block.getIndex());
+            }
+        }
+    }
+
+    /**
+     * Add several new Blocks to the Node, in the order of the collection.
+     * The blocks are saved and written to the disk at once, then they are sent to the other nodes in a single message.
+     * A node which can not receive them is disconnected.
+     *
+     * @param values
+     *            the values contained in the new blocks
+     * @throws IOException
+     *             If the blocks can not be saved. They are added to the chain and sent to the other nodes anyway.
+     */
+    public void addBlocks(Collection<? extends T> values) throws IOException {
+        append(values);
+    }
+
+    /**
+     * Submit a value to add to the chain in background.
+     * The values submitted are added by batches, see {@link NodeOptions#setMaxBatchSize(int)} and
+     * {@link NodeOptions#setBatchLinger(long, TimeUnit)}, each batch being added like by {@link #addBlocks(Collection)}.
+     *
+     * @param value
+     *            the value contained in the block
+     * @return a future completed with the new block once it is saved, or completed exceptionally if the block can not be saved.
+     *         In both cases the block is added to the chain, and it is sent to the other nodes.
+     */
+    public CompletableFuture<Block<T>> submit(T value) {
+        Submission<T> submission = new Submission<>(value);
+        submissions.add(submission);
+        if (appenderStarted.compareAndSet(false, true)) {
+            executor.execute(this::appendSubmissions);
+        }
+        return submission.future;
+    }
+
+    private List<Block<T>> append(Collection<? extends T> values) throws IOException {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Block<T>> blocks = new ArrayList<>(values.size());
+        Block<T> block = null;
+        long ticket = 0;
+        appendLock.lock();
+        try {
+            Block<T> tip;
+            do {
+                blocks.clear();
+                tip = currentBlock.get();
+                block = tip;
+                for (T value : values) {
+                    block = new Block<>(value, block);
+                    blocks.add(block);
+                }
+            } while (!currentBlock.compareAndSet(tip, block));
+            ticket = ++appended;
+            persist();
+            if (store != null) {
+                store.flush();
+            }
+        } finally {
+            appendLock.unlock();
+            // The blocks are in the chain once published, so they are sent even if they can not be saved
+            if (ticket > 0) {
+                emitInOrder(ticket, block, blocks.get(0).getIndex());
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Send the blocks of a local append to the other nodes once the blocks appended before have been sent.
+     * The append lock is not held, so the next blocks are saved while these ones are sent, but the nodes still receive the blocks
+     * in the order of the chain.
+     */
+    private void emitInOrder(long ticket, Block<T> tip, long from) {
+        emitLock.lock();
+        try {
+            while (emitted != ticket - 1) {
+                emittedChanged.awaitUninterruptibly();
+            }
+            try {
+                emit(tip, from);
+            } finally {
+                emitted = ticket;
+                emittedChanged.signalAll();
+            }
+        } finally {
+            emitLock.unlock();
+        }
+    }
+
+    /**
+     * Add the submitted values to the chain by batches, waiting for the first value of each batch.
+     */
+    private void appendSubmissions() {
+        List<Submission<T>> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(submissions.take());
+                submissions.drainTo(batch, maxBatchSize - batch.size());
+                long deadline = System.nanoTime() + batchLingerNanos;
+                while (batch.size() < maxBatchSize && deadline - System.nanoTime() > 0) {
+                    Submission<T> submission = submissions.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (submission == null) {
+                        break;
+                    }
+                    batch.add(submission);
+                }
+                appendBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedException cause = e;
+            batch.forEach(submission -> submission.future.completeExceptionally(cause));
+            appenderStarted.set(false);
+        }
+    }
+
+    private void startMempool() {
+        if (mempool != null) {
+            executor.execute(this::appendPending);
+        }
+    }
+
+    /**
+     * Add the data pending in the mempool to the chain by batches.
+     */
+    private void appendPending() {
+        try {
+            while (true) {
+                List<T> values = mempool.take(maxBatchSize, batchLingerNanos, TimeUnit.NANOSECONDS);
+                try {
+                    append(values);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("The pending data has been added to the chain, but it can not be saved", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void appendBatch(List<Submission<T>> batch) {
+        List<T> values = new ArrayList<>(batch.size());
+        for (Submission<T> submission : batch) {
+            values.add(submission.value);
+        }
+        try {
+            List<Block<T>> blocks = append(values);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(blocks.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            batch.forEach(submission -> submission.future.completeExceptionally(e));
+        }
     }
 
     /**
      * Connect to a new Node.
+     * The nodes exchange the latest blocks of their chains, then the missing blocks are sent in background.
      *
      * @param remoteAdress
      *            the host of the remote node
@@ -106,54 +503,184 @@ public class Node<T extends Serializable> {
      *             If the data send by the other note is not of the same Class that this node.
      */
     public void addNode(String remoteAdress, Integer remotePort) throws IOException, ClassNotFoundException {
-        Socket socket = new Socket(remoteAdress, remotePort);
-        nodes.add(socket);
-        ask(socket);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void ask(Socket socket) throws IOException, ClassNotFoundException {
-        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out.write("blockchain");
-        out.newLine();
-        out.flush();
+        Connection connection = transport.connect(new InetSocketAddress(remoteAdress, remotePort), handler);
+        nodes.add(connection);
+        announce(connection, currentBlock.get());
+    }
+
+    private void bootstrap(List<Connection> connections, NodeOptions<T> options) throws IOException {
         LOGGER.info("ask for syncing");
-        byte[] bytes = Base64.getDecoder().decode(in.readLine().getBytes());
-        new NodeThread(socket).start();
-        ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
-        receive((Block<T>) objectInputStream.readObject());
+        HeadersFirstSync<T> sync = new HeadersFirstSync<>(codec, executor, options.getSyncRangeSize(), options.getSyncListener());
+        try {
+            receive(sync.run(connections));
+        } finally {
+            syncProgress = sync.getProgress();
+        }
+        announce(currentBlock.get());
+        startMempool();
     }
 
     private void receive(Block<T> block) throws IOException {
         LOGGER.info("recu bloc {}", block);
-        Block<T> newBlock = getBestChains(currentBlock, block);
-        if (newBlock != currentBlock) {
-            currentBlock = newBlock;
-            emit(newBlock);
+        Block<T> local;
+        do {
+            local = currentBlock.get();
+            if (getBestChains(local, block) == local) {
+                return;
+            }
+        } while (!currentBlock.compareAndSet(local, block));
+        try {
+            persist();
+        } finally {
+            announce(block);
         }
     }
 
-    private void emit(Block<T> newBlock) throws IOException {
-        for (Socket node : nodes) {
-            send(node, newBlock);
+    private void handle(Connection connection, Message message) throws IOException {
+        if (currentBlock.get() == null) {
+            LOGGER.debug("Ignore the message received before the end of the initial synchronization");
+            return;
+        }
+        switch (message.getCommand()) {
+            case HeadersFirstSync.HEADERS:
+                Block<T> tip = currentBlock.get();
+                connection.send(HeadersFirstSync.HEADER_RANGE, out -> HeadersFirstSync.encodeHeaders(tip, out));
+                break;
+            case HeadersFirstSync.BODIES:
+                sendBodies(connection, message.getLong(1), message.getLong(2));
+                break;
+            case TIP:
+                receiveTip(connection, message.getLong(1), HashUtils.fromHex(message.getArgument(2)));
+                break;
+            case BLOCKS:
+                sendBlocks(connection, Math.max(0, message.getLong(1)));
+                break;
+            case RANGE:
+                receiveRange(connection, message);
+                break;
+            default:
+                LOGGER.warn("Unknown message {}", message.getCommand());
         }
     }
 
-    private void send(Socket socket, Block<T> newBlock) throws IOException {
-        if (socket.isClosed()) {
-            nodes.remove(socket);
+    private void receiveTip(Connection connection, long index, byte[] hash) throws IOException {
+        Block<T> local = currentBlock.get();
+        if (index > local.getIndex()) {
+            connection.send(BLOCKS + ' ' + (local.getIndex() + 1));
+        } else if (index < local.getIndex() && index >= 0) {
+            if (Arrays.equals(hash, HashUtils.toArray(local.get(index).getHash()))) {
+                sendRange(connection, local, index + 1);
+            } else {
+                announce(connection, local);
+            }
+        }
+        // With the same length, the local chain is kept and the remote node keeps its own
+    }
+
+    private void sendBlocks(Connection connection, long from) throws IOException {
+        Block<T> local = currentBlock.get();
+        if (from > local.getIndex()) {
+            announce(connection, local);
+        } else {
+            sendRange(connection, local, from);
+        }
+    }
+
+    private void sendBodies(Connection connection, long from, long to) throws IOException {
+        Block<T> local = currentBlock.get();
+        String header = HeadersFirstSync.BODY_RANGE + ' ' + from + ' ' + to;
+        if (from < 0 || from > to || to > local.getIndex()) {
+            connection.send(header);
+        } else {
+            connection.send(header, out -> codec.encode(local.get(to), from, out));
+        }
+    }
+
+    private void receiveRange(Connection connection, Message message) throws IOException {
+        Block<T> local = currentBlock.get();
+        try {
+            receive(codec.decode(message.getPayload(), local));
+        } catch (MissingParentException e) {
+            // Go back twice as far as the local blocks already covered by the range, to meet the local chain in a few requests
+            long from = e.getFrom();
+            long next = from > local.getIndex() + 1 ? local.getIndex() + 1 : from - Math.max(1, 2 * (local.getIndex() + 1 - from));
+            LOGGER.info("The blocks from {} do not follow the local chain, ask for the blocks from {}", from, Math.max(0, next));
+            connection.send(BLOCKS + ' ' + Math.max(0, next));
+        }
+    }
+
+    /**
+     * Save the latest block of the chain, which may have been replaced since the block to save,
+     * so a block saved late never overwrites a more recent chain.
+     */
+    private void persist() throws IOException {
+        if (store != null) {
+            persistLock.lock();
+            try {
+                store.save(currentBlock.get());
+            } finally {
+                persistLock.unlock();
+            }
+        }
+    }
+
+    private static <T extends Serializable> Block<T> load(BlockStore<T> store, int payloadCacheSize) throws IOException {
+        Block<T> block = payloadCacheSize > 0 ? store.load(payloadCacheSize) : store.load();
+        if (block == null) {
+            throw new IllegalArgumentException("The store does not contain any block");
+        }
+        return block;
+    }
+
+    private void emit(Block<T> tip, long from) {
+        // The blocks are encoded once for all the nodes
+        ByteBuffer frame;
+        try {
+            frame = Message.encode(RANGE, out -> codec.encode(tip, from, out));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("The blocks from {} to {} can not be encoded", from, tip.getIndex(), e);
             return;
         }
-        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
-        objectOutputStream.writeObject(newBlock);
-        out.write(new String(Base64.getEncoder().encode(byteArrayOutputStream.toByteArray())));
-        out.newLine();
-        out.flush();
-        LOGGER.info("Send the blocks");
-        byteArrayOutputStream.close();
+        broadcast(frame);
+        LOGGER.info("Send the blocks from {} to {}", from, tip.getIndex());
+    }
+
+    private void announce(Block<T> tip) {
+        broadcast(Message.encode(tipMessage(tip)));
+    }
+
+    /**
+     * Send a message to all the other nodes. A node which can not receive it is disconnected,
+     * and the message is still sent to the next nodes.
+     */
+    private void broadcast(ByteBuffer frame) {
+        for (Connection node : openNodes()) {
+            try {
+                node.send(frame);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("The node {} can not receive the message, it is disconnected", node, e);
+                node.close();
+                nodes.remove(node);
+            }
+        }
+    }
+
+    private List<Connection> openNodes() {
+        nodes.removeIf(Connection::isClosed);
+        return nodes;
+    }
+
+    private void announce(Connection connection, Block<T> tip) throws IOException {
+        connection.send(tipMessage(tip));
+    }
+
+    private static String tipMessage(Block<?> tip) {
+        return TIP + ' ' + tip.getIndex() + ' ' + HashUtils.toHex(HashUtils.toArray(tip.getHash()));
+    }
+
+    private void sendRange(Connection connection, Block<T> tip, long from) throws IOException {
+        connection.send(RANGE, out -> codec.encode(tip, from, out));
+        LOGGER.info("Send the blocks from {} to {}", from, tip.getIndex());
     }
 
     /**
@@ -162,35 +689,42 @@ public class Node<T extends Serializable> {
      * @return the current blockchain in the node.
      */
     public Block<T> getBlockChain() {
-        return currentBlock;
+        return currentBlock.get();
     }
 
-    private class NodeThread extends Thread {
-        private Socket socket;
+    /**
+     * Return the progress of the initial synchronization, if the node has joined the network through other nodes.
+     *
+     * @return the progress of the initial synchronization, or null if the node has been created with its own chain.
+     */
+    public SyncProgress getSyncProgress() {
+        return syncProgress;
+    }
 
-        private NodeThread(Socket socket) {
-            this.socket = socket;
-        }
+    /**
+     * Return the block of the current blockchain at the specified index.
+     *
+     * @param index
+     *            the index of the block
+     * @return the block of the current blockchain at the specified index.
+     * @throws IndexOutOfBoundsException
+     *             If the index is negative or greater than the index of the latest block.
+     */
+    public Block<T> getBlock(long index) {
+        return currentBlock.get().get(index);
+    }
 
-        @SuppressWarnings("unchecked")
-        @Override
-        public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                String line = null;
-                while ((line = in.readLine()) != null) {
-                    if ("blockchain".equals(line)) {
-                        send(socket, currentBlock);
-                    } else {
-                        byte[] bytes = Base64.getDecoder().decode(line.getBytes());
-                        ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
-                        receive((Block<T>) objectInputStream.readObject());
-                    }
-                }
-            } catch (SocketException e) {
-                LOGGER.info("Un noeud injoignable");
-            } catch (IOException | ClassNotFoundException e) {
-                LOGGER.error(e.getMessage(), e);
-            }
+    /**
+     * A value submitted to be added to the chain, with the future of its block.
+     */
+    private static final class Submission<T extends Serializable> {
+
+        private final T value;
+
+        private final CompletableFuture<Block<T>> future = new CompletableFuture<>();
+
+        private Submission(T value) {
+            this.value = value;
         }
     }
 
@@ -0,0 +1,258 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The options of a {@link Node}.
+ * The nodes of a network must use compatible options to communicate.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public class NodeOptions<T extends Serializable> {
+
+    private BlockCodec<T> codec = new BinaryBlockCodec<>();
+
+    private int syncRangeSize = 500;
+
+    private Consumer<SyncProgress> syncListener;
+
+    private int eventLoops;
+
+    private Executor executor;
+
+    private int maxBatchSize = 1000;
+
+    private long batchLingerNanos;
+
+    private Mempool<T> mempool;
+
+    /**
+     * Return the codec used to send the blocks to the other nodes.
+     *
+     * @return the codec used to send the blocks to the other nodes.
+     */
+    public BlockCodec<T> getCodec() {
+        return codec;
+    }
+
+    /**
+     * Set the codec used to send the blocks to the other nodes. A {@link BinaryBlockCodec} is used by default.
+     *
+     * @param codec
+     *            the codec used to send the blocks to the other nodes
+     * @return these options
+     */
+    public NodeOptions<T> setCodec(BlockCodec<T> codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Return the number of blocks requested at once from a node during the initial synchronization.
+     *
+     * @return the number of blocks requested at once during the initial synchronization.
+     */
+    public int getSyncRangeSize() {
+        return syncRangeSize;
+    }
+
+    /**
+     * Set the number of blocks requested at once from a node during the initial synchronization. The default value is 500.
+     *
+     * @param syncRangeSize
+     *            the number of blocks requested at once, at least 1
+     * @return these options
+     * @throws IllegalArgumentException
+     *             If the size is lower than 1
+     */
+    public NodeOptions<T> setSyncRangeSize(int syncRangeSize) {
+        if (syncRangeSize < 1) {
+            throw new IllegalArgumentException("The range size must be at least 1 : " + syncRangeSize);
+        }
+        this.syncRangeSize = syncRangeSize;
+        return this;
+    }
+
+    /**
+     * Return the listener notified of the progress of the initial synchronization.
+     *
+     * @return the listener notified of the progress of the initial synchronization, or null
+     */
+    public Consumer<SyncProgress> getSyncListener() {
+        return syncListener;
+    }
+
+    /**
+     * Set a listener notified when the headers are received and after each range of blocks downloaded during the initial synchronization.
+     * The listener can be called from several threads at once.
+     *
+     * @param syncListener
+     *            the listener notified of the progress of the initial synchronization, or null
+     * @return these options
+     */
+    public NodeOptions<T> setSyncListener(Consumer<SyncProgress> syncListener) {
+        this.syncListener = syncListener;
+        return this;
+    }
+
+    /**
+     * Return the number of event loops of the non-blocking network layer.
+     *
+     * @return the number of event loops, or 0 if each connection is read by its own thread.
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Serve all the connections of the node with non-blocking channels, from the specified number of threads.
+     * By default, each connection is read by its own thread, which limits the number of connections of a node.
+     * Both modes can be used by the nodes of a network.
+     *
+     * @param eventLoops
+     *            the number of threads serving the connections, or 0 to read each connection from its own thread
+     * @return these options
+     * @throws IllegalArgumentException
+     *             If the number is negative
+     */
+    public NodeOptions<T> setEventLoops(int eventLoops) {
+        if (eventLoops < 0) {
+            throw new IllegalArgumentException("The number of event loops can not be negative : " + eventLoops);
+        }
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    /**
+     * Return the executor running the tasks of the node.
+     *
+     * @return the executor running the tasks of the node, or null if a new thread is started for each task.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Run the tasks of the node on the specified executor : the reading of each connection and the accepting of the connections,
+     * the downloads of the initial synchronization, and the sending of the messages, which are then queued for each connection
+     * instead of being written by the thread producing them.
+     * <p>
+     * As the connections are read with blocking calls, the executor must be able to run a task for each connection at once,
+     * like a cached thread pool, or virtual threads (see {@link #useVirtualThreads()}).
+     * The executor is not shut down by the node.
+     * With {@link #setEventLoops(int) event loops}, the connections are read and written by the event loops,
+     * and the executor only handles the messages received.
+     *
+     * @param executor
+     *            the executor running the tasks of the node, or null to start a new thread for each task
+     * @return these options
+     */
+    public NodeOptions<T> setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Run the tasks of the node on virtual threads, a new one for each task, see {@link #setExecutor(Executor)}.
+     * The blocking reads of the connections then do not hold a platform thread each.
+     *
+     * @return these options
+     * @throws UnsupportedOperationException
+     *             If the virtual threads are not available, before Java 21.
+     */
+    public NodeOptions<T> useVirtualThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return setExecutor((ExecutorService) factory.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("The virtual threads are not available on this JVM", e);
+        }
+    }
+
+    /**
+     * Return the maximum number of submitted data added to the chain at once.
+     *
+     * @return the maximum number of submitted data added to the chain at once.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set the maximum number of data submitted by {@link Node#submit(Serializable)} added to the chain at once. The default value is 1000.
+     *
+     * @param maxBatchSize
+     *            the maximum number of data added at once, at least 1
+     * @return these options
+     * @throws IllegalArgumentException
+     *             If the size is lower than 1
+     */
+    public NodeOptions<T> setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1 : " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Return the time waited for more submitted data before adding them to the chain.
+     *
+     * @param unit
+     *            the unit of the returned value
+     * @return the time waited for more submitted data in the specified unit.
+     */
+    public long getBatchLinger(TimeUnit unit) {
+        return unit.convert(batchLingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the time waited for more data after a data is submitted by {@link Node#submit(Serializable)}, before adding them to the chain.
+     * By default, the data are added as soon as possible, with the data submitted while the previous batch was added.
+     *
+     * @param linger
+     *            the time waited for more submitted data
+     * @param unit
+     *            the unit of the time
+     * @return these options
+     * @throws IllegalArgumentException
+     *             If the time is negative
+     */
+    public NodeOptions<T> setBatchLinger(long linger, TimeUnit unit) {
+        if (linger < 0) {
+            throw new IllegalArgumentException("The linger time can not be negative : " + linger);
+        }
+        batchLingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    /**
+     * Return the mempool feeding the node.
+     *
+     * @return the mempool feeding the node, or null
+     */
+    public Mempool<T> getMempool() {
+        return mempool;
+    }
+
+    /**
+     * Create the blocks of the node from the data pending in a mempool.
+     * The data are taken by batches, like the submitted data, see {@link #setMaxBatchSize(int)} and {@link #setBatchLinger(long, TimeUnit)},
+     * and each batch is added like by {@link Node#addBlocks(java.util.Collection)}.
+     *
+     * @param mempool
+     *            the mempool feeding the node, or null
+     * @return these options
+     */
+    public NodeOptions<T> setMempool(Mempool<T> mempool) {
+        this.mempool = mempool;
+        return this;
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A message waiting to be written on a connection, as a sequence of frames.
+ * <p>
+ * The frames of a message encoded at once are all available, while the frames of a message streamed to the connection
+ * are added as its payload is encoded : the encoding waits while too many frames are not written yet.
+ */
+final class OutgoingMessage implements Message.FrameSink {
+
+    /**
+     * The frame following the last frame of a message.
+     */
+    static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private static final int MAX_FRAMES = 4;
+
+    private final BlockingQueue<ByteBuffer> frames;
+
+    private volatile boolean discarded;
+
+    /**
+     * Create a message to be streamed, whose frames are added by {@link #accept(ByteBuffer)} then {@link #end()}.
+     */
+    OutgoingMessage() {
+        frames = new ArrayBlockingQueue<>(MAX_FRAMES);
+    }
+
+    /**
+     * Create a message already encoded.
+     *
+     * @param encoded
+     *            the frames of the message, see {@link Message#encode(String, Message.Encoder)}
+     */
+    OutgoingMessage(ByteBuffer encoded) {
+        frames = new ArrayBlockingQueue<>(2);
+        frames.add(encoded.duplicate());
+        frames.add(END);
+    }
+
+    /**
+     * Add a frame, waiting while too many frames are not written yet.
+     *
+     * @throws IOException
+     *             If the connection has been closed.
+     */
+    @Override
+    public void accept(ByteBuffer frame) throws IOException {
+        if (discarded) {
+            throw new IOException("The connection has been closed");
+        }
+        try {
+            frames.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending a message");
+        }
+        if (discarded) {
+            throw new IOException("The connection has been closed");
+        }
+    }
+
+    /**
+     * Mark the end of the message, once its last frame has been added.
+     *
+     * @throws IOException
+     *             If the connection has been closed.
+     */
+    void end() throws IOException {
+        accept(END);
+    }
+
+    /**
+     * Return the next frame to write without waiting.
+     *
+     * @return the next frame, {@link #END} after the last frame, or null if the next frame is not encoded yet
+     */
+    ByteBuffer poll() {
+        return frames.poll();
+    }
+
+    /**
+     * Wait for the next frame to write.
+     *
+     * @return the next frame, or {@link #END} after the last frame
+     * @throws InterruptedIOException
+     *             If the thread is interrupted.
+     */
+    ByteBuffer take() throws InterruptedIOException {
+        try {
+            return frames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending a message");
+        }
+    }
+
+    /**
+     * Discard the frames once the connection is closed, waking up the threads adding or waiting for the frames.
+     */
+    void discard() {
+        discarded = true;
+        frames.clear();
+        frames.offer(END);
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the data of the blocks, loaded on demand.
+ * It is used by the blocks which do not keep their data on the heap : the least recently used data are evicted
+ * once the cache is full, and loaded again when needed.
+ * The data are looked up by the index and the digest of their block, so a block replaced in the store by a block of another fork
+ * is never mistaken for the block it replaced.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+final class PayloadCache<T extends Serializable> {
+
+    private final Loader<T> loader;
+
+    private final Map<Long, Payload<T>> entries;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param loader
+     *            the function loading the data of a block from its index and its digest
+     * @param capacity
+     *            the maximum number of data kept in the cache
+     */
+    PayloadCache(Loader<T> loader, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache must be positive : " + capacity);
+        }
+        this.loader = loader;
+        entries = new LinkedHashMap<Long, Payload<T>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Payload<T>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the data of a block, loading it if it is not in the cache.
+     * The data is loaded without holding the lock of the cache, so the loader can take its own locks.
+     *
+     * @param index
+     *            the index of the block
+     * @param hash
+     *            the digest of the block
+     * @return the data of the block
+     */
+    T get(long index, byte[] hash) {
+        synchronized (this) {
+            Payload<T> payload = entries.get(index);
+            if (payload != null && Arrays.equals(payload.hash, hash)) {
+                return payload.data;
+            }
+        }
+        T data = loader.load(index, hash);
+        synchronized (this) {
+            entries.put(index, new Payload<>(hash, data));
+        }
+        return data;
+    }
+
+    /**
+     * Evict the data of the blocks from the specified index, after they have been removed from the store.
+     *
+     * @param index
+     *            the index of the first block removed
+     */
+    synchronized void evictFrom(long index) {
+        Iterator<Long> indexes = entries.keySet().iterator();
+        while (indexes.hasNext()) {
+            if (indexes.next() >= index) {
+                indexes.remove();
+            }
+        }
+    }
+
+    /**
+     * The function loading the data of a block.
+     *
+     * @param <T>
+     *            The class of the data contained in the blocks.
+     */
+    @FunctionalInterface
+    interface Loader<T> {
+
+        /**
+         * Load the data of a block.
+         *
+         * @param index
+         *            the index of the block
+         * @param hash
+         *            the digest of the block
+         * @return the data of the block
+         */
+        T load(long index, byte[] hash);
+    }
+
+    private static final class Payload<T> {
+
+        private final byte[] hash;
+
+        private final T data;
+
+        private Payload(byte[] hash, T data) {
+            this.hash = hash;
+            this.data = data;
+        }
+    }
+}
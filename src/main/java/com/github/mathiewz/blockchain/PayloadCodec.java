@@ -0,0 +1,35 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Encode and decode the data contained in the blocks, for the {@link BinaryBlockCodec}.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public interface PayloadCodec<T extends Serializable> {
+
+    /**
+     * Encode the data of a block.
+     *
+     * @param data
+     *            the data to encode
+     * @return the encoded data
+     * @throws IOException
+     *             If the data can not be encoded.
+     */
+    byte[] encode(T data) throws IOException;
+
+    /**
+     * Decode the data of a block.
+     *
+     * @param bytes
+     *            the encoded data
+     * @return the decoded data
+     * @throws IOException
+     *             If the data can not be decoded.
+     */
+    T decode(byte[] bytes) throws IOException;
+}
@@ -0,0 +1,129 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The end of the payload of a message received in several frames, read while the next frames are received.
+ * <p>
+ * The frames received and not read yet are counted in the backlog of the connection,
+ * so the connection is not read anymore while the payload is not read.
+ */
+final class PayloadStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private static final byte[] FAILED = new byte[0];
+
+    private final Connection connection;
+
+    private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+
+    private byte[] chunk = new byte[0];
+
+    private int position;
+
+    private volatile boolean closed;
+
+    PayloadStream(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Add the content of a frame received.
+     *
+     * @param content
+     *            the content of the frame
+     */
+    void add(byte[] content) {
+        chunks.add(content);
+        if (closed) {
+            discard();
+        }
+    }
+
+    /**
+     * Mark the end of the payload, once its last frame has been added.
+     */
+    void end() {
+        chunks.add(END);
+    }
+
+    /**
+     * Fail the reading of the payload, once the connection has been closed before its last frame.
+     */
+    void fail() {
+        chunks.add(FAILED);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!next()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!next()) {
+            return -1;
+        }
+        int length = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    /**
+     * Wait for the next frame once the current one has been read.
+     *
+     * @return false at the end of the payload
+     */
+    private boolean next() throws IOException {
+        while (position == chunk.length) {
+            if (chunk == END) {
+                return false;
+            }
+            if (chunk == FAILED || closed) {
+                throw new IOException("The connection has been closed before the end of the message");
+            }
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while receiving a message");
+            }
+            position = 0;
+            connection.release(chunk.length);
+        }
+        return true;
+    }
+
+    /**
+     * Discard the frames not read yet, and those received from now on.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        discard();
+    }
+
+    private void discard() {
+        byte[] content;
+        while ((content = chunks.poll()) != null) {
+            connection.release(content.length);
+        }
+    }
+}
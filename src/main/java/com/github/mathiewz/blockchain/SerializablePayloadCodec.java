@@ -0,0 +1,35 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * A payload codec using the Java serialization of the data.
+ * It works with any data, but a dedicated codec is more compact.
+ *
+ * @param <T>
+ *            The class of the data contained in the blocks.
+ */
+public class SerializablePayloadCodec<T extends Serializable> implements PayloadCodec<T> {
+
+    @Override
+    public byte[] encode(T data) throws IOException {
+        try {
+            return SerializationUtils.serialize(data);
+        } catch (SerializationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) throws IOException {
+        try {
+            return SerializationUtils.deserialize(bytes);
+        } catch (SerializationException | ClassCastException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
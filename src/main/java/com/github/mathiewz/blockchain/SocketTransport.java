@@ -0,0 +1,292 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A transport using blocking sockets, with a task accepting the connections and a task reading each connection.
+ * The messages received are handled by other tasks, while the reading task waits when the backlog of its connection is full.
+ * <p>
+ * The messages are either written by the thread sending them, or queued for each connection and written by a task,
+ * so a slow node does not block the thread sending a message to all the nodes.
+ */
+final class SocketTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocketTransport.class);
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final Executor executor;
+
+    private final boolean queueMessages;
+
+    /**
+     * Create a transport.
+     *
+     * @param executor
+     *            the executor running the tasks of the transport, which must be able to run a task for each connection at once
+     * @param queueMessages
+     *            true to queue the messages and write them from the executor, false to write them from the thread sending them
+     */
+    SocketTransport(Executor executor, boolean queueMessages) {
+        this.executor = executor;
+        this.queueMessages = queueMessages;
+    }
+
+    @Override
+    public void listen(int port, Handler handler) {
+        executor.execute(() -> {
+            try (ServerSocket ss = new ServerSocket(port)) {
+                while (true) {
+                    SocketConnection connection = new SocketConnection(ss.accept());
+                    handler.accepted(connection);
+                    executor.execute(() -> connection.read(handler));
+                }
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        });
+    }
+
+    @Override
+    public Connection connect(InetSocketAddress remote, Handler handler) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(remote);
+        SocketConnection connection = new SocketConnection(socket);
+        executor.execute(() -> connection.read(handler));
+        return connection;
+    }
+
+    private final class SocketConnection extends Connection {
+
+        private final Socket socket;
+
+        private final OutputStream out;
+
+        private final Queue<OutgoingMessage> outbox = new ConcurrentLinkedQueue<>();
+
+        private final AtomicLong pending = new AtomicLong();
+
+        private final AtomicBoolean writing = new AtomicBoolean();
+
+        private final Lock readLock = new ReentrantLock();
+
+        /**
+         * The lock held while writing, rather than a monitor, so a virtual thread blocked in a write does not pin its carrier thread.
+         */
+        private final Lock writeLock = new ReentrantLock();
+
+        private final Condition readable = readLock.newCondition();
+
+        private SocketConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        private void read(Handler handler) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    received(readContent(in, Message.contentLength(length)), Message.isContinued(length), handler, executor);
+                    awaitBacklog();
+                }
+            } catch (SocketException e) {
+                LOGGER.info("Un noeud injoignable");
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Read the content of a frame, allocated as its bytes arrive, whatever the length announced.
+         */
+        private byte[] readContent(DataInputStream in, int length) throws IOException {
+            byte[] content = new byte[Math.min(length, READ_SIZE)];
+            int read = 0;
+            while (true) {
+                in.readFully(content, read, content.length - read);
+                read = content.length;
+                if (read == length) {
+                    return content;
+                }
+                content = Arrays.copyOf(content, Math.min(length, 2 * read));
+            }
+        }
+
+        /**
+         * Wait while the backlog of the connection is full.
+         */
+        private void awaitBacklog() throws InterruptedIOException {
+            readLock.lock();
+            try {
+                while (isBacklogged() && !isClosed()) {
+                    readable.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading a connection");
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        void resumeReading() {
+            readLock.lock();
+            try {
+                readable.signalAll();
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        void send(ByteBuffer frames) throws IOException {
+            if (!queueMessages) {
+                write(frames);
+                return;
+            }
+            checkOpen();
+            if (pending.get() > MAX_PENDING) {
+                close();
+                throw new IOException("The node " + getRemoteAddress() + " does not read its messages, the connection is closed");
+            }
+            pending.addAndGet(frames.remaining());
+            outbox.add(new OutgoingMessage(frames));
+            writeQueued();
+        }
+
+        @Override
+        void send(String header, Message.Encoder payload) throws IOException {
+            if (!queueMessages) {
+                // The frames of the message must not be interleaved with those of another message
+                writeLock.lock();
+                try {
+                    stream(header, payload, this::write);
+                } finally {
+                    writeLock.unlock();
+                }
+                return;
+            }
+            checkOpen();
+            OutgoingMessage message = new OutgoingMessage();
+            outbox.add(message);
+            if (isClosed()) {
+                message.discard();
+            }
+            writeQueued();
+            stream(header, payload, frame -> {
+                pending.addAndGet(frame.remaining());
+                message.accept(frame);
+            });
+            message.end();
+        }
+
+        private void checkOpen() throws IOException {
+            if (isClosed()) {
+                throw new IOException("The connection to " + getRemoteAddress() + " is closed");
+            }
+        }
+
+        /**
+         * Start a task writing the queued messages, unless one is already running.
+         */
+        private void writeQueued() {
+            if (outbox.isEmpty() || !writing.compareAndSet(false, true)) {
+                return;
+            }
+            executor.execute(() -> {
+                try {
+                    OutgoingMessage message;
+                    while ((message = outbox.peek()) != null) {
+                        ByteBuffer frame;
+                        while ((frame = message.take()) != OutgoingMessage.END) {
+                            write(frame);
+                            pending.addAndGet(-frame.limit());
+                        }
+                        outbox.poll();
+                    }
+                } catch (IOException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    close();
+                } finally {
+                    writing.set(false);
+                }
+                // A message may have been queued after the last poll
+                writeQueued();
+            });
+        }
+
+        private void write(ByteBuffer frame) throws IOException {
+            ByteBuffer bytes = frame.duplicate();
+            writeLock.lock();
+            try {
+                if (bytes.hasArray()) {
+                    out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                } else {
+                    byte[] copy = new byte[bytes.remaining()];
+                    bytes.get(copy);
+                    out.write(copy);
+                }
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        boolean isClosed() {
+            return socket.isClosed();
+        }
+
+        @Override
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug(e.getMessage(), e);
+            }
+            OutgoingMessage message;
+            while ((message = outbox.poll()) != null) {
+                message.discard();
+            }
+            closed();
+            resumeReading();
+        }
+
+        @Override
+        SocketAddress getRemoteAddress() {
+            return socket.getRemoteSocketAddress();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.mathiewz.blockchain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The progress of the initial synchronization of a node joining the network.
+ */
+public final class SyncProgress {
+
+    private final long headers;
+
+    private final long downloadedBlocks;
+
+    private final int peers;
+
+    private final long durationNanos;
+
+    SyncProgress(long headers, long downloadedBlocks, int peers, long durationNanos) {
+        this.headers = headers;
+        this.downloadedBlocks = downloadedBlocks;
+        this.peers = peers;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Return the number of headers received, which is the number of blocks of the chain to download.
+     *
+     * @return the number of headers received.
+     */
+    public long getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Return the number of blocks downloaded and checked against their headers.
+     *
+     * @return the number of blocks downloaded.
+     */
+    public long getDownloadedBlocks() {
+        return downloadedBlocks;
+    }
+
+    /**
+     * Return the number of nodes the blocks are downloaded from.
+     *
+     * @return the number of nodes the blocks are downloaded from.
+     */
+    public int getPeers() {
+        return peers;
+    }
+
+    /**
+     * Check if all the blocks of the chain have been downloaded.
+     *
+     * @return true if all the blocks have been downloaded
+     */
+    public boolean isComplete() {
+        return headers > 0 && downloadedBlocks == headers;
+    }
+
+    /**
+     * Return the time elapsed since the start of the synchronization.
+     *
+     * @param unit
+     *            the unit of the returned value
+     * @return the time elapsed since the start of the synchronization in the specified unit.
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("headers", headers)
+                .append("downloadedBlocks", downloadedBlocks)
+                .append("peers", peers)
+                .append("durationNanos", durationNanos)
+                .build();
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.mathiewz.blockchain;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * The network layer of a node, opening the {@link Connection connections} to the other nodes.
+ */
+interface Transport {
+
+    /**
+     * Accept the connections of other nodes in background.
+     * The errors are logged, as the node does not stop if it can not be joined.
+     *
+     * @param port
+     *            the port where the node can be joined
+     * @param handler
+     *            the handler of the connections and of the messages
+     */
+    void listen(int port, Handler handler);
+
+    /**
+     * Connect to another node.
+     *
+     * @param remote
+     *            the address of the remote node
+     * @param handler
+     *            the handler of the messages received from the remote node
+     * @return the connection to the remote node
+     * @throws IOException
+     *             If the node can not be joined.
+     */
+    Connection connect(InetSocketAddress remote, Handler handler) throws IOException;
+
+    /**
+     * Handle the connections accepted and the messages received by a transport.
+     * When the handling of a message fails, the connection is closed.
+     */
+    interface Handler {
+
+        void accepted(Connection connection);
+
+        void received(Connection connection, Message message) throws IOException;
+    }
+}
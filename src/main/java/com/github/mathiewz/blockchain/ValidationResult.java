@@ -0,0 +1,76 @@
+package com.github.mathiewz.blockchain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The result of the validation of a blockchain.
+ */
+public final class ValidationResult {
+
+    /**
+     * The value returned by {@link #getFirstInvalidIndex()} when the whole chain is valid.
+     */
+    public static final long NO_INVALID_INDEX = -1;
+
+    private final long firstInvalidIndex;
+
+    private final long checkedBlocks;
+
+    private final long durationNanos;
+
+    ValidationResult(long firstInvalidIndex, long checkedBlocks, long durationNanos) {
+        this.firstInvalidIndex = firstInvalidIndex;
+        this.checkedBlocks = checkedBlocks;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Check if the whole chain is valid.
+     *
+     * @return true if no invalid block has been found
+     */
+    public boolean isValid() {
+        return firstInvalidIndex == NO_INVALID_INDEX;
+    }
+
+    /**
+     * Return the index of the oldest invalid block of the chain.
+     *
+     * @return the index of the oldest invalid block, or {@link #NO_INVALID_INDEX} if the whole chain is valid.
+     */
+    public long getFirstInvalidIndex() {
+        return firstInvalidIndex;
+    }
+
+    /**
+     * Return the number of blocks checked during the validation.
+     *
+     * @return the number of blocks checked during the validation.
+     */
+    public long getCheckedBlocks() {
+        return checkedBlocks;
+    }
+
+    /**
+     * Return the time taken by the validation.
+     *
+     * @param unit
+     *            the unit of the returned value
+     * @return the time taken by the validation in the specified unit.
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("valid", isValid())
+                .append("firstInvalidIndex", firstInvalidIndex)
+                .append("checkedBlocks", checkedBlocks)
+                .append("durationNanos", durationNanos)
+                .build();
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.mathiewz.blockchain;
+
+/**
+ * The validity of a chain, as memoized by its last block.
+ */
+public enum Validity {
+
+    /**
+     * The chain has not been validated yet.
+     */
+    UNKNOWN,
+
+    /**
+     * All the blocks of the chain are valid.
+     */
+    VALID,
+
+    /**
+     * At least one block of the chain is invalid.
+     */
+    INVALID
+}
@@ -0,0 +1,146 @@
+package com.github.mathiewz.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BinaryBlockCodecTest {
+
+    /**
+     * The offset of the length of the digests : version, first index, number of blocks and algorithm.
+     */
+    private static final int HASH_LENGTH_OFFSET = 1 + 8 + 8 + 2 + Block.DEFAULT_ALGORITHM.length();
+
+    /**
+     * The offset of the length of the data of the first block of a range starting with the first block.
+     */
+    private static final int PAYLOAD_LENGTH_OFFSET = HASH_LENGTH_OFFSET + 4 + 32;
+
+    private final BinaryBlockCodec<String> codec = new BinaryBlockCodec<>(new StringCodec());
+
+    @Test
+    public void wholeChainRoundTrip() throws IOException {
+        Block<String> tip = chain(50);
+        Block<String> decoded = codec.decode(new ByteArrayInputStream(encode(tip, 0)), null);
+        assertEquals(tip.getHash(), decoded.getHash());
+        assertEquals(50, decoded.getIndex());
+        for (long index = 0; index <= tip.getIndex(); index++) {
+            assertEquals(tip.get(index).getData(), decoded.get(index).getData());
+        }
+    }
+
+    @Test
+    public void rangeRoundTrip() throws IOException {
+        Block<String> tip = chain(50);
+        byte[] encoded = encode(tip, 31);
+        Block<String> decoded = codec.decode(new ByteArrayInputStream(encoded), tip.get(30));
+        assertEquals(tip.getHash(), decoded.getHash());
+        assertEquals(tip.get(30), decoded.get(30));
+    }
+
+    @Test
+    public void rangesAreReadFromTheSameStream() throws IOException {
+        Block<String> tip = chain(20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(tip.get(9), 0, out);
+        codec.encode(tip, 10, out);
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        Block<String> decoded = codec.decode(in, codec.decode(in, null));
+        assertEquals(tip.getHash(), decoded.getHash());
+    }
+
+    @Test(expected = MissingParentException.class)
+    public void rangeWithoutItsParentIsRejected() throws IOException {
+        Block<String> tip = chain(50);
+        codec.decode(new ByteArrayInputStream(encode(tip, 31)), tip.get(20));
+    }
+
+    @Test
+    public void malformedInputIsRejected() throws IOException {
+        byte[] encoded = encode(chain(3), 0);
+        assertRejected(patch(encoded, 0, (byte) 9));
+        assertRejected(patchLong(encoded, 9, -1));
+        assertRejected(patchLong(encoded, 9, Long.MAX_VALUE));
+        assertRejected(patchInt(encoded, HASH_LENGTH_OFFSET, -1));
+        assertRejected(patchInt(encoded, HASH_LENGTH_OFFSET, Integer.MAX_VALUE));
+        assertRejected(patchInt(encoded, HASH_LENGTH_OFFSET, 31));
+        assertRejected(patchInt(encoded, PAYLOAD_LENGTH_OFFSET, -1));
+        assertRejected(patchInt(encoded, PAYLOAD_LENGTH_OFFSET, Integer.MAX_VALUE));
+        assertRejected(patchInt(encoded, PAYLOAD_LENGTH_OFFSET, Message.MAX_SIZE + 1));
+        assertRejected(patch(encoded, HASH_LENGTH_OFFSET + 4, (byte) (encoded[HASH_LENGTH_OFFSET + 4] ^ 1)));
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+    }
+
+    @Test
+    public void unknownAlgorithmIsRejected() throws IOException {
+        byte[] encoded = encode(chain(1), 0);
+        byte[] algorithm = Block.DEFAULT_ALGORITHM.getBytes(StandardCharsets.UTF_8);
+        algorithm[0] = 'X';
+        byte[] patched = encoded.clone();
+        System.arraycopy(algorithm, 0, patched, 19, algorithm.length);
+        assertRejected(patched);
+    }
+
+    private void assertRejected(byte[] encoded) {
+        try {
+            codec.decode(new ByteArrayInputStream(encoded), null);
+            fail("The malformed input has been decoded");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private byte[] encode(Block<String> tip, long from) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(tip, from, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] patch(byte[] encoded, int offset, byte value) {
+        byte[] patched = encoded.clone();
+        patched[offset] = value;
+        return patched;
+    }
+
+    private static byte[] patchInt(byte[] encoded, int offset, int value) {
+        byte[] patched = encoded.clone();
+        ByteBuffer.wrap(patched).putInt(offset, value);
+        return patched;
+    }
+
+    private static byte[] patchLong(byte[] encoded, int offset, long value) {
+        byte[] patched = encoded.clone();
+        ByteBuffer.wrap(patched).putLong(offset, value);
+        return patched;
+    }
+
+    private static Block<String> chain(int length) {
+        Block<String> tip = new Block<>("block-0");
+        for (int i = 1; i <= length; i++) {
+            tip = new Block<>("block-" + i, tip);
+        }
+        return tip;
+    }
+
+    private static final class StringCodec implements PayloadCodec<String> {
+
+        @Override
+        public byte[] encode(String data) {
+            return data.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
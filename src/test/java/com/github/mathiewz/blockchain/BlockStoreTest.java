@@ -0,0 +1,299 @@
+package com.github.mathiewz.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("blockstore");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void reopenWithoutCheckpoint() throws IOException {
+        Block<String> tip = chain(200);
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(tip);
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            assertEquals(201, store.size());
+            Block<String> loaded = store.load();
+            assertEquals(tip, loaded);
+            assertTrue(loaded.isWholeChainValid());
+            assertEquals("data-150", loaded.get(150).getData());
+        }
+    }
+
+    @Test
+    public void reopenFromCheckpoint() throws IOException {
+        Block<String> tip = chain(200);
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 50)) {
+            store.save(tip.get(120));
+            store.save(tip);
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 50)) {
+            assertEquals(201, store.size());
+            Block<String> loaded = store.load(10);
+            assertEquals(tip, loaded);
+            assertEquals(Validity.VALID, loaded.get(120).getValidity());
+            assertEquals("data-42", loaded.get(42).getData());
+        }
+    }
+
+    @Test
+    public void emptyStore() throws IOException {
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE)) {
+            assertEquals(0, store.size());
+            assertNull(store.load());
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        Block<String> tip = chain(100);
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(tip.get(99));
+        }
+        Path previous = lastSegment();
+        byte[] before = Files.readAllBytes(previous);
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(tip);
+        }
+        // The last record may start a new segment
+        Path segment = lastSegment();
+        if (!segment.equals(previous)) {
+            before = new byte[SEGMENT_SIZE];
+        }
+        byte[] after = Files.readAllBytes(segment);
+        int start = 0;
+        while (before[start] == after[start]) {
+            start++;
+        }
+        // The length and the index of the last record are written, but not the rest of the record
+        int written = start + Integer.BYTES + Long.BYTES;
+        System.arraycopy(before, written, after, written, after.length - written);
+        Files.write(segment, after);
+
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            assertEquals(100, store.size());
+            Block<String> loaded = store.load();
+            assertEquals(tip.get(99), loaded);
+            assertTrue(loaded.isWholeChainValid());
+            store.save(new Block<>("recovered", loaded));
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            assertEquals(101, store.size());
+            assertEquals("recovered", store.load().getData());
+        }
+    }
+
+    @Test
+    public void corruptedRecordDropsTheNextSegments() throws IOException {
+        Block<String> tip = chain(300);
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(tip);
+        }
+        Path first = directory.resolve("segment-00000000.dat");
+        byte[] content = Files.readAllBytes(first);
+        content[content.length / 2] ^= 1;
+        Files.write(first, content);
+
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            assertTrue(store.size() < 301);
+            Block<String> loaded = store.load();
+            assertEquals(tip.get(store.size() - 1), loaded);
+            assertTrue(loaded.isWholeChainValid());
+        }
+        assertTrue(!Files.exists(directory.resolve("segment-00000001.dat")));
+    }
+
+    @Test
+    public void corruptedCheckpointFallsBackToScan() throws IOException {
+        Block<String> tip = chain(200);
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 50)) {
+            store.save(tip);
+            store.checkpoint();
+        }
+        Path checkpoint = directory.resolve("checkpoint.dat");
+        byte[] content = Files.readAllBytes(checkpoint);
+        Files.write(checkpoint, java.util.Arrays.copyOf(content, 14));
+
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 50)) {
+            assertEquals(201, store.size());
+            assertEquals(tip, store.load());
+        }
+    }
+
+    @Test
+    public void saveReplacesAFork() throws IOException {
+        Block<String> tip = chain(100);
+        Block<String> fork = new Block<>("fork", tip.get(60));
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(tip);
+            store.save(fork);
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            assertEquals(62, store.size());
+            assertEquals(fork, store.load());
+        }
+    }
+
+    @Test
+    public void checkpointsAppendToTheOffsetTable() throws IOException {
+        Block<String> tip = chain(300);
+        Path table = directory.resolve("offsets.dat");
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 100)) {
+            store.save(tip.get(150));
+            assertEquals(151 * Long.BYTES, Files.size(table));
+            byte[] first = Files.readAllBytes(table);
+            store.save(tip);
+            byte[] second = Files.readAllBytes(table);
+            assertEquals(301 * Long.BYTES, second.length);
+            assertTrue(java.util.Arrays.equals(first, java.util.Arrays.copyOf(second, first.length)));
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 100)) {
+            assertEquals(301, store.size());
+            assertEquals(Validity.VALID, store.load().getValidity());
+        }
+    }
+
+    @Test
+    public void forkBelowTheCheckpointKeepsACheckpoint() throws IOException {
+        Block<String> tip = chain(200);
+        Block<String> fork = new Block<>("fork", tip.get(80));
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 100)) {
+            store.save(tip);
+            store.save(fork);
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 100)) {
+            assertEquals(82, store.size());
+            Block<String> loaded = store.load();
+            assertEquals(fork, loaded);
+            assertEquals(Validity.VALID, loaded.getPrevious().getValidity());
+        }
+    }
+
+    @Test
+    public void savedBlocksReadTheirDataFromTheStore() throws IOException {
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(chain(50));
+        }
+        try (BlockStore<String> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            Block<String> loaded = store.load(4);
+            Block<String> next = new Block<>("next", loaded);
+            store.save(next);
+            assertEquals("next", next.getData());
+            Block<String> fork = new Block<>("fork", loaded);
+            store.save(fork);
+            assertEquals("fork", fork.getData());
+            assertEquals("data-10", fork.get(10).getData());
+            try {
+                next.getData();
+                fail("The data of a block replaced in the store must not be read");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void merkleRootsAreRestoredWithoutReadingTheData() throws IOException {
+        Block<Batch<Item>> tip = new Block<>(new Batch<>(Arrays.asList(new Item(0))));
+        for (int i = 1; i <= 20; i++) {
+            tip = new Block<>(i % 5 == 0 ? null : new Batch<>(Arrays.asList(new Item(i), new Item(-i))), tip);
+        }
+        try (BlockStore<Batch<Item>> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            store.save(tip);
+            store.checkpoint();
+        }
+        try (BlockStore<Batch<Item>> store = new BlockStore<>(directory, SEGMENT_SIZE, 0)) {
+            Block<Batch<Item>> loaded = store.load(4);
+            Item.READ.set(0);
+            for (long index = 0; index <= tip.getIndex(); index++) {
+                assertEquals(tip.get(index).getMerkleRoot(), loaded.get(index).getMerkleRoot());
+            }
+            assertNotNull(loaded.get(1).getMerkleRoot());
+            assertNull(loaded.get(5).getMerkleRoot());
+            assertEquals(0, Item.READ.get());
+            List<Item> items = new ArrayList<>(loaded.get(7).getData().getItems());
+            assertEquals(2, Item.READ.get());
+            assertTrue(loaded.get(7).getData().getProof(1).verify(items.get(1), loaded.get(7)));
+        }
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).max(Comparator.naturalOrder()).get();
+        }
+    }
+
+    private static Block<String> chain(int length) {
+        Block<String> block = new Block<>("genesis");
+        for (int i = 1; i <= length; i++) {
+            block = new Block<>("data-" + i, block);
+        }
+        return block;
+    }
+
+    /**
+     * An item counting how many times the items are deserialized.
+     */
+    private static final class Item implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final AtomicInteger READ = new AtomicInteger();
+
+        private final int value;
+
+        private Item(int value) {
+            this.value = value;
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            READ.incrementAndGet();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Item && ((Item) obj).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+}
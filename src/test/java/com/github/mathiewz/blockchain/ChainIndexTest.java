@@ -0,0 +1,134 @@
+package com.github.mathiewz.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class ChainIndexTest {
+
+    private static final Function<String, String> PREFIX = data -> data.substring(0, data.indexOf('-'));
+
+    @Test
+    public void forksKeepTheBlocksBeforeTheForkPoint() {
+        Block<String> tip = extend(new Block<>("main-0"), "main", 10000);
+        for (long forkPoint : new long[] { 1, 4095, 4096, 4097, 8192, 9999 }) {
+            Block<String> fork = extend(tip.get(forkPoint - 1), "fork" + forkPoint, 100);
+            for (long position = 0; position < forkPoint; position++) {
+                assertSame(tip.get(position), fork.get(position));
+            }
+            for (long position = forkPoint; position <= fork.getIndex(); position++) {
+                assertEquals("fork" + forkPoint + "-" + position, fork.get(position).getData());
+            }
+        }
+        for (long position = 0; position <= tip.getIndex(); position++) {
+            assertEquals("main-" + position, tip.get(position).getData());
+        }
+    }
+
+    @Test
+    public void forkOfAForkKeepsAllItsAncestors() {
+        Block<String> block = new Block<>("main-0");
+        List<Block<String>> tips = new ArrayList<>();
+        for (int fork = 0; fork < 1000; fork++) {
+            Block<String> tip = extend(block, "fork" + fork, 2);
+            tips.add(tip);
+            block = tip.getPrevious();
+        }
+        for (Block<String> tip : tips) {
+            Block<String> current = tip;
+            while (current.getIndex() > 0) {
+                assertSame(current, tip.get(current.getIndex()));
+                current = current.getPrevious();
+            }
+        }
+    }
+
+    @Test
+    public void dataOfASiblingIsNotFound() {
+        Block<String> tip = extend(new Block<>("main-0"), "main", 5000);
+        assertTrue(tip.contains("main-4000"));
+        Block<String> fork = extend(tip.get(4199), "fork", 1000);
+        assertEquals(4000, fork.indexOf("main-4000"));
+        assertFalse(fork.contains("main-4200"));
+        assertEquals(4500, fork.indexOf("fork-4500"));
+        assertFalse(tip.contains("fork-4500"));
+        assertEquals(-1, fork.get(4300).indexOf("fork-4500"));
+    }
+
+    @Test
+    public void keyIndexCoversTheForks() {
+        Block<String> tip = extend(new Block<>("main-0"), "main", 3000);
+        Block<String> before = extend(tip.get(1999), "before", 500);
+        tip.addKeyIndex(PREFIX);
+        Block<String> after = extend(tip.get(2499), "after", 500);
+        assertEquals(Arrays.asList(2000L, 2001L, 2002L), positions(before, "before").subList(0, 3));
+        assertEquals(500, positions(before, "before").size());
+        assertEquals(2000, positions(before, "main").size());
+        assertEquals(500, positions(after, "after").size());
+        assertEquals(2500, positions(after, "main").size());
+        assertEquals(3001, positions(tip, "main").size());
+        assertTrue(positions(tip, "after").isEmpty());
+    }
+
+    @Test
+    public void keyIndexBuiltWhileAppending() throws InterruptedException {
+        Block<String> first = extend(new Block<>("main-0"), "main", 20000);
+        List<Block<String>> tip = new ArrayList<>();
+        Thread appender = new Thread(() -> tip.add(extend(first, "main", 20000)));
+        appender.start();
+        first.addKeyIndex(PREFIX);
+        first.addKeyIndex(Function.identity());
+        appender.join();
+        assertEquals(40001, positions(tip.get(0), "main").size());
+        assertEquals(Arrays.asList(39999L), tip.get(0).findAll(Function.identity(), "main-39999").stream().map(Block::getIndex).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void bloomFilterCoversTheForks() {
+        Block<String> tip = extend(new Block<>("main-0"), "main", 3000);
+        Block<String> fork = extend(tip.get(1999), "fork", 500);
+        tip.enableBloomFilter(0.01);
+        assertTrue(fork.contains("fork-2100"));
+        assertTrue(fork.contains("main-1999"));
+        assertFalse(fork.contains("main-2100"));
+        assertFalse(tip.contains("fork-2100"));
+        assertEquals(2999, tip.indexOf("main-2999"));
+    }
+
+    @Test
+    public void bloomFilterIsCheckedBeforeTheDataIndex() {
+        Block<String> tip = extend(new Block<>("main-0"), "main", 5000);
+        tip.enableBloomFilter(0.01);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(tip.contains("absent-" + i));
+        }
+        for (int i = 0; i <= 5000; i += 7) {
+            assertEquals(i, tip.indexOf("main-" + i));
+        }
+        BloomFilterStats stats = tip.getBloomFilterStats();
+        assertEquals(1715, stats.getQueries());
+        assertEquals(1000, stats.getNegatives() + stats.getFalsePositives());
+        assertTrue(stats.getFalsePositives() < 50);
+    }
+
+    private static List<Long> positions(Block<String> tip, String prefix) {
+        return tip.findAll(PREFIX, prefix).stream().map(Block::getIndex).collect(Collectors.toList());
+    }
+
+    private static Block<String> extend(Block<String> block, String prefix, int count) {
+        Block<String> tip = block;
+        for (int i = 0; i < count; i++) {
+            tip = new Block<>(prefix + "-" + (tip.getIndex() + 1), tip);
+        }
+        return tip;
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.mathiewz.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class MempoolTest {
+
+    @Test
+    public void duplicatesAreIgnored() {
+        Mempool<String> mempool = new Mempool<>(10);
+        assertTrue(mempool.offer("a"));
+        assertTrue(mempool.offer("b"));
+        assertTrue(mempool.offer("a"));
+        assertEquals(2, mempool.size());
+        assertEquals(1, mempool.getStats().getDuplicates());
+        assertEquals(Arrays.asList("a", "b"), mempool.poll(10));
+        assertTrue(mempool.offer("a"));
+        assertEquals(1, mempool.size());
+    }
+
+    @Test
+    public void duplicatesAreFoundByKey() {
+        Mempool<String> mempool = new Mempool<>(10, data -> data.charAt(0), null, 0, TimeUnit.SECONDS);
+        mempool.offer("a1");
+        mempool.offer("b1");
+        mempool.offer("a2");
+        assertEquals(Arrays.asList("a1", "b1"), mempool.poll(10));
+    }
+
+    @Test
+    public void dataAreTakenByPriorityThenInOrder() {
+        Mempool<String> mempool = new Mempool<>(10, Function.identity(), Comparator.comparing(String::length), 0, TimeUnit.SECONDS);
+        mempool.offer("a");
+        mempool.offer("ccc");
+        mempool.offer("b");
+        mempool.offer("dd");
+        mempool.offer("eee");
+        assertEquals(Arrays.asList("ccc", "eee", "dd"), mempool.poll(3));
+        assertEquals(Arrays.asList("a", "b"), mempool.poll(3));
+        assertEquals(Collections.emptyList(), mempool.poll(3));
+    }
+
+    @Test
+    public void fullPoolEvictsTheLowestPriority() {
+        Mempool<Integer> mempool = new Mempool<>(2, Function.identity(), Comparator.naturalOrder(), 0, TimeUnit.SECONDS);
+        assertTrue(mempool.offer(1));
+        assertTrue(mempool.offer(2));
+        assertTrue(mempool.offer(3));
+        assertFalse(mempool.offer(0));
+        // The evicted data is refused like any data with a lower priority
+        assertFalse(mempool.offer(1));
+        MempoolStats stats = mempool.getStats();
+        assertEquals(1, stats.getEvicted());
+        assertEquals(2, stats.getRejected());
+        assertEquals(Arrays.asList(3, 2), mempool.poll(10));
+    }
+
+    @Test
+    public void fullPoolWithoutPriorityRefusesTheNewData() {
+        Mempool<String> mempool = new Mempool<>(1);
+        assertTrue(mempool.offer("a"));
+        assertFalse(mempool.offer("b"));
+        assertTrue(mempool.offer("a"));
+        assertEquals(Arrays.asList("a"), mempool.poll(10));
+    }
+
+    @Test
+    public void offerWaitsForAFreePlace() throws InterruptedException {
+        Mempool<String> mempool = new Mempool<>(1);
+        mempool.offer("a");
+        CompletableFuture.runAsync(() -> {
+            sleep(50);
+            mempool.poll(1);
+        });
+        assertTrue(mempool.offer("b", 5, TimeUnit.SECONDS));
+        assertFalse(mempool.offer("c", 50, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("b"), mempool.poll(10));
+    }
+
+    @Test
+    public void pendingDataExpire() {
+        Mempool<String> mempool = new Mempool<>(10, Function.identity(), null, 50, TimeUnit.MILLISECONDS);
+        mempool.offer("a");
+        sleep(100);
+        mempool.offer("b");
+        assertEquals(Arrays.asList("b"), mempool.poll(10));
+        assertEquals(1, mempool.getStats().getExpired());
+    }
+
+    @Test
+    public void takeLingersForMoreData() throws Exception {
+        Mempool<String> mempool = new Mempool<>(10);
+        CompletableFuture<List<String>> taken = take(mempool, 3, 10_000);
+        mempool.offer("a");
+        sleep(50);
+        mempool.offer("b");
+        mempool.offer("c");
+        assertEquals(Arrays.asList("a", "b", "c"), taken.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void takeReturnsAtTheEndOfTheLinger() throws Exception {
+        Mempool<String> mempool = new Mempool<>(10);
+        mempool.offer("a");
+        long start = System.nanoTime();
+        assertEquals(Arrays.asList("a"), mempool.take(3, 100, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void takeDoesNotWaitForDataThatExpire() throws Exception {
+        // The linger is longer than the time to live : it ends before the data expires, and the data is taken
+        Mempool<String> mempool = new Mempool<>(10, Function.identity(), null, 50, TimeUnit.MILLISECONDS);
+        mempool.offer("a");
+        assertEquals(Arrays.asList("a"), take(mempool, 10, 5_000).get(2, TimeUnit.SECONDS));
+        assertEquals(0, mempool.getStats().getExpired());
+    }
+
+    @Test
+    public void takeNeverReturnsAnEmptyBatch() throws Exception {
+        Mempool<String> mempool = new Mempool<>(10);
+        CompletableFuture<List<String>> taken = take(mempool, 10, 300);
+        mempool.offer("a");
+        sleep(50);
+        // The pending data is taken by another thread during the linger : the take waits for the next one
+        assertEquals(Arrays.asList("a"), mempool.poll(10));
+        sleep(400);
+        assertFalse(taken.isDone());
+        mempool.offer("b");
+        assertEquals(Arrays.asList("b"), taken.get(5, TimeUnit.SECONDS));
+    }
+
+    private static CompletableFuture<List<String>> take(Mempool<String> mempool, int maxSize, long lingerMillis) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return mempool.take(maxSize, lingerMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
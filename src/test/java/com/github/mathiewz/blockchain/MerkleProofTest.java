@@ -0,0 +1,92 @@
+package com.github.mathiewz.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MerkleProofTest {
+
+    @Test
+    public void everyItemHasAValidProof() {
+        for (int size = 1; size <= 33; size++) {
+            Batch<String> batch = batch(size);
+            ByteBuffer root = batch.getRoot();
+            for (int index = 0; index < size; index++) {
+                MerkleProof proof = batch.getProof(index);
+                assertTrue("Item " + index + " of " + size, proof.verify(batch.get(index), root));
+                assertEquals(size, proof.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void tamperedItemIsRejected() {
+        Batch<String> batch = batch(7);
+        assertFalse(batch.getProof(3).verify("item-4", batch.getRoot()));
+        assertFalse(batch.getProof(3).verify("other", batch.getRoot()));
+    }
+
+    @Test
+    public void proofOfAnotherBatchIsRejected() {
+        assertFalse(batch(5).getProof(2).verify("item-2", batch(6).getRoot()));
+    }
+
+    @Test
+    public void forgedCountIsRejected() {
+        // In [a, b, c], c is promoted to the second level, where its sibling is the node of a and b :
+        // the same path would lead to the top node of a tree of two items with c at the position 1
+        Batch<String> batch = new Batch<>(Arrays.asList("a", "b", "c"));
+        MessageDigest messageDigest = HashUtils.newMessageDigest(Block.DEFAULT_ALGORITHM);
+        byte[] left = HashUtils.merkleNode(messageDigest, HashUtils.merkleLeaf(messageDigest, "a"), HashUtils.merkleLeaf(messageDigest, "b"));
+        MerkleProof forged = new MerkleProof(Block.DEFAULT_ALGORITHM, 1, 2, new byte[][] { left });
+        assertFalse(forged.verify("c", batch.getRoot()));
+        assertTrue(new MerkleProof(Block.DEFAULT_ALGORITHM, 2, 3, new byte[][] { left }).verify("c", batch.getRoot()));
+    }
+
+    @Test
+    public void rootCoversTheNumberOfItems() {
+        assertNotEquals(batch(1).getRoot(), ByteBuffer.wrap(HashUtils.merkleLeaf(HashUtils.newMessageDigest(Block.DEFAULT_ALGORITHM), "item-0")));
+        assertEquals(ByteBuffer.wrap(batch(9).computeRoot()), batch(9).getRoot());
+    }
+
+    @Test
+    public void proofIsVerifiedAgainstABlock() {
+        Batch<String> batch = batch(10);
+        Block<Batch<String>> block = new Block<>(batch(3));
+        block = new Block<>(batch, block);
+        assertEquals(batch.getRoot(), block.getMerkleRoot());
+        assertTrue(batch.getProof(4).verify("item-4", block));
+        assertFalse(batch.getProof(4).verify("item-4", block.getPrevious()));
+
+        Block<String> plain = new Block<>("data");
+        assertNull(plain.getMerkleRoot());
+        assertFalse(batch.getProof(4).verify("item-4", plain));
+    }
+
+    @Test
+    public void proofIsVerifiedAgainstAHeader() {
+        Batch<String> batch = batch(10);
+        Block<Batch<String>> block = new Block<>(batch);
+        Block<Batch<String>> header = new Block<>(null, null, null, block.getAlgorithm(), HashUtils.toArray(block.getHash()), Validity.UNKNOWN);
+        header.setMerkleRoot(HashUtils.toArray(block.getMerkleRoot()));
+        assertTrue(batch.getProof(9).verify("item-9", header));
+    }
+
+    private static Batch<String> batch(int size) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            items.add("item-" + i);
+        }
+        return new Batch<>(items);
+    }
+}